@@ -0,0 +1,716 @@
+/*
+	PuzzleBench.java - Benchmarks the synchronization core of every puzzle, for use as a regression gate.
+
+	Each workload below drives the hot path of one puzzle with no sleeping at all, every thread repeating one operation as
+	fast as it can:
+
+		sid/...        - a search, insert or delete of a random value, 80% searches, on a list of about 512 values
+		unisex/...     - enter and exit the bathroom, threads split between two classes, 3 at a time
+		multiuser/...  - acquire and release a random demand of up to 4 of each of 2 resources, 64 of each in all
+		senatebus/...  - riders join the stop, half the threads, while the other half claim them as buses
+		roomsearch/... - a student enters and leaves while a dean visits every millisecond, threshold half the threads
+
+	For each puzzle every implementation in the tree is measured, along with a 'monitor' baseline guarding the same state
+	with a single ReentrantLock, with a fair and an unfair lock, in the shape each puzzle had before its current design.
+
+	The methodology follows JMH: every workload and thread count runs in a JVM of its own, forked from this one, which runs
+	some warm up iterations and then the measured ones. The throughput is the mean over the measured iterations, given
+	with its relative standard deviation. The latency percentiles come from timing one operation in every eight.
+
+	With -save the results are written to a file, and with -baseline compared to those of an earlier run: a throughput
+	more than -tolerance percent below the baseline's fails the run with exit status 1.
+
+	Invoke as: java PuzzleBench [-filter regex] [-threads 1,2,4,8] [-warmup n] [-iterations n] [-time ms] [-forks n]
+	                            [-save file] [-baseline file] [-tolerance percent]
+*/
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+
+public class PuzzleBench {
+
+	private static final int SAMPLE = 8;
+	private static final int MAX_SAMPLES = 1 << 16;
+
+
+	//One puzzle's hot path, set up for a number of threads then driven by all of them
+	interface Workload {
+
+		default void setUp(int threads) {}
+
+		//One operation by thread 'id'
+		void op(int id, SplittableRandom rnd);
+
+		//Started once the threads are, stopped once they have finished
+		default Thread helper(AtomicBoolean stop) {
+			return null;
+		}
+	}
+
+
+	private static final LinkedHashMap<String, Supplier<Workload>> WORKLOADS = new LinkedHashMap<String, Supplier<Workload>>();
+
+	static {
+		WORKLOADS.put("sid/lock", () -> new SidWorkload("lock"));
+		WORKLOADS.put("sid/combining", () -> new SidWorkload("combining"));
+		WORKLOADS.put("sid/lockfree", () -> new SidWorkload("lockfree"));
+		WORKLOADS.put("sid/monitor-fair", () -> new SidWorkload("fair"));
+		WORKLOADS.put("sid/monitor-unfair", () -> new SidWorkload("unfair"));
+
+		WORKLOADS.put("unisex/group", () -> new UnisexWorkload(null));
+		WORKLOADS.put("unisex/monitor-fair", () -> new UnisexWorkload(true));
+		WORKLOADS.put("unisex/monitor-unfair", () -> new UnisexWorkload(false));
+
+		WORKLOADS.put("multiuser/fifo", () -> new PoolWorkload(() -> new ResourceAllocator(PoolWorkload.TOTALS, "fifo")));
+		WORKLOADS.put("multiuser/bestfit", () -> new PoolWorkload(() -> new ResourceAllocator(PoolWorkload.TOTALS, "bestfit")));
+		WORKLOADS.put("multiuser/striped", () -> new PoolWorkload(() -> new StripedResourcePool(PoolWorkload.TOTALS)));
+		WORKLOADS.put("multiuser/sharded", () -> new PoolWorkload(() -> new ShardedResourcePool(PoolWorkload.TOTALS, 4, "least", false)));
+		WORKLOADS.put("multiuser/monitor-fair", () -> new PoolWorkload(() -> new MonitorPool(PoolWorkload.TOTALS, true)));
+		WORKLOADS.put("multiuser/monitor-unfair", () -> new PoolWorkload(() -> new MonitorPool(PoolWorkload.TOTALS, false)));
+
+		WORKLOADS.put("senatebus/barrier", () -> new BusWorkload(null));
+		WORKLOADS.put("senatebus/monitor-fair", () -> new BusWorkload(true));
+		WORKLOADS.put("senatebus/monitor-unfair", () -> new BusWorkload(false));
+
+		WORKLOADS.put("roomsearch/fair", () -> new RoomWorkload(t -> new FairRoom(t, false)));
+		WORKLOADS.put("roomsearch/striped", () -> new RoomWorkload(t -> new StripedRoom(t, false)));
+		WORKLOADS.put("roomsearch/monitor-unfair", () -> new RoomWorkload(t -> new MonitorRoom(t)));
+	}
+
+
+	//SID2's admission and list operations
+	static final class SidWorkload implements Workload {
+
+		private final String mode;
+		private final IndexedIntList list = new IndexedIntList();
+		private final LockFreeList lfList = new LockFreeList();
+		private final SearchInsertDeleteLock sidLock = new SearchInsertDeleteLock();
+		private final FlatCombiner combiner = new FlatCombiner(list, sidLock);
+		private final ReentrantLock monitor;
+
+
+		SidWorkload(String m) {
+			this.mode = m;
+			this.monitor = new ReentrantLock(m.equals("fair"));
+		}
+
+
+		public void setUp(int threads) {
+			for (int v=0; v<1024; v+=2) {
+				list.add(v);
+				lfList.add(v);
+			}
+		}
+
+
+		public void op(int id, SplittableRandom rnd) {
+			int r = rnd.nextInt(10);
+			char type = r < 8 ? 'S' : r == 8 ? 'I' : 'D';
+			int val = rnd.nextInt(1024);
+
+			if (mode.equals("lockfree")) {
+				if (type == 'S')
+					lfList.contains(val);
+				else if (type == 'I')
+					lfList.add(val);
+				else
+					lfList.remove(val);
+			} else if (mode.equals("combining") && type != 'S') {
+				combiner.apply(type, val);
+			} else if (mode.equals("lock") || mode.equals("combining")) {
+				sidLock.acquire(type);
+				try {
+					operate(type, val);
+				} finally {
+					sidLock.release(type);
+				}
+			} else {
+				monitor.lock();
+				try {
+					operate(type, val);
+				} finally {
+					monitor.unlock();
+				}
+			}
+		}
+
+
+		private void operate(char type, int val) {
+			if (type == 'S')
+				list.contains(val);
+			else if (type == 'I')
+				list.add(val);
+			else
+				list.remove(val);
+		}
+	}
+
+
+	//Unisex enter and exit
+	static final class UnisexWorkload implements Workload {
+
+		private final GroupMutex mutex;
+		private final ReentrantLock lock;
+		private final Condition cond;
+		private int ownedBy;
+		private int size;
+
+
+		//A GroupMutex, or with 'fair' given the original Unisex admission
+		UnisexWorkload(Boolean fair) {
+			this.mutex = fair == null ? new GroupMutex(2, 3) : null;
+			this.lock = fair == null ? null : new ReentrantLock(fair);
+			this.cond = fair == null ? null : lock.newCondition();
+		}
+
+
+		public void op(int id, SplittableRandom rnd) {
+			int cls = id % 2;
+
+			if (mutex != null) {
+				mutex.enter(cls);
+				mutex.exit(cls);
+				return;
+			}
+
+			lock.lock();
+			while ((size >= 3 || ownedBy != cls) && size != 0)
+				cond.awaitUninterruptibly();
+			ownedBy = cls;
+			size++;
+			lock.unlock();
+
+			lock.lock();
+			size--;
+			cond.signalAll();
+			lock.unlock();
+		}
+	}
+
+
+	//MultiUser acquire and release
+	static final class PoolWorkload implements Workload {
+
+		static final int[] TOTALS = {64, 64};
+
+		private final ResourcePool pool;
+
+
+		PoolWorkload(Supplier<ResourcePool> p) {
+			this.pool = p.get();
+		}
+
+
+		public void op(int id, SplittableRandom rnd) {
+			int[] demand = {1 + rnd.nextInt(4), 1 + rnd.nextInt(4)};
+			pool.release(pool.acquire(demand));
+		}
+	}
+
+
+	//The original MultiUser allocation, every release wakes every waiting user to recheck
+	static final class MonitorPool implements ResourcePool {
+
+		private final int[] totals;
+		private final int[] available;
+		private final ReentrantLock lock;
+		private final Condition freed;
+
+
+		MonitorPool(int[] t, boolean fair) {
+			this.totals = t.clone();
+			this.available = t.clone();
+			this.lock = new ReentrantLock(fair);
+			this.freed = lock.newCondition();
+		}
+
+
+		public Grant acquire(int[] demand) {
+			lock.lock();
+			try {
+				while (!fits(demand))
+					freed.awaitUninterruptibly();
+				for (int i=0; i<demand.length; i++)
+					available[i] -= demand[i];
+				return new Grant(this, demand.clone(), available.clone(), -1);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+
+		public int[] release(Grant grant) {
+			grant.retire(this);
+			int[] demand = grant.demand;
+			lock.lock();
+			try {
+				for (int i=0; i<demand.length; i++)
+					available[i] += demand[i];
+				freed.signalAll();
+				return available.clone();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+
+		public int[] getTotals() {
+			return totals.clone();
+		}
+
+
+		public int[] getAvailable() {
+			lock.lock();
+			try {
+				return available.clone();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+
+		private boolean fits(int[] demand) {
+			for (int i=0; i<demand.length; i++)
+				if (demand[i] > available[i])
+					return false;
+			return true;
+		}
+	}
+
+
+	/*
+	SenateBus boarding. Even threads are riders joining the stop, odd ones buses claiming up to 50 riders, and a lone thread
+	does both. Riders hold off while more than 10000 are waiting so the queue stays bounded.
+	*/
+	static final class BusWorkload implements Workload {
+
+		private final BoardingBarrier barrier;
+		private final ReentrantLock lock;
+		private final ArrayList<Thread> queue = new ArrayList<Thread>();
+		private int threads;
+
+
+		//A BoardingBarrier, or with 'fair' given one lock around a list as boarding used to be
+		BusWorkload(Boolean fair) {
+			this.barrier = fair == null ? new BoardingBarrier(50) : null;
+			this.lock = fair == null ? null : new ReentrantLock(fair);
+		}
+
+
+		public void setUp(int threads) {
+			this.threads = threads;
+		}
+
+
+		public void op(int id, SplittableRandom rnd) {
+			if (threads == 1) {
+				join();
+				if (rnd.nextInt(50) == 0)
+					claim();
+			} else if (id % 2 == 0) {
+				while (waiting() > 10000)
+					Thread.yield();
+				join();
+			} else {
+				claim();
+			}
+		}
+
+
+		private void join() {
+			if (barrier != null) {
+				barrier.join();
+				return;
+			}
+			lock.lock();
+			try {
+				queue.add(Thread.currentThread());
+			} finally {
+				lock.unlock();
+			}
+		}
+
+
+		private void claim() {
+			if (barrier != null) {
+				barrier.claim();
+				return;
+			}
+			lock.lock();
+			try {
+				int n = Math.min(50, queue.size());
+				queue.subList(queue.size() - n, queue.size()).clear();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+
+		private int waiting() {
+			if (barrier != null)
+				return barrier.getQueueLength();
+			lock.lock();
+			try {
+				return queue.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+
+	//RoomSearch student entry and exit with a dean visiting every millisecond
+	static final class RoomWorkload implements Workload {
+
+		private final java.util.function.IntFunction<Room> factory;
+		private Room room;
+
+
+		RoomWorkload(java.util.function.IntFunction<Room> f) {
+			this.factory = f;
+		}
+
+
+		public void setUp(int threads) {
+			room = factory.apply(Math.max(1, threads / 2));
+		}
+
+
+		public void op(int id, SplittableRandom rnd) {
+			room.enter();
+			room.exit();
+		}
+
+
+		public Thread helper(AtomicBoolean stop) {
+			return new Thread(() -> {
+				while (!stop.get()) {
+					try {
+						Thread.sleep(1);
+					} catch (InterruptedException e) {}
+					room.visit();
+				}
+			});
+		}
+	}
+
+
+	//FairRoom's logic with an unfair lock and none of its measurements
+	static final class MonitorRoom implements Room {
+
+		private final ReentrantLock lock = new ReentrantLock(false);
+		private final Condition roomCond = lock.newCondition();
+		private final Condition dCond = lock.newCondition();
+		private final int threshold;
+		private boolean dean_in;
+		private int size;
+
+
+		MonitorRoom(int t) {
+			this.threshold = t;
+		}
+
+
+		public void enter() {
+			lock.lock();
+			while (dean_in)
+				roomCond.awaitUninterruptibly();
+			size++;
+			lock.unlock();
+		}
+
+
+		public void exit() {
+			lock.lock();
+			if (--size == 0)
+				dCond.signal();
+			lock.unlock();
+		}
+
+
+		public boolean visit() {
+			lock.lock();
+			try {
+				if (size != 0 && size <= threshold)
+					return false;
+				dean_in = true;
+				while (size != 0)
+					dCond.awaitUninterruptibly();
+				dean_in = false;
+				roomCond.signalAll();
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+
+		public boolean awaitQualifies() {
+			return false;
+		}
+
+
+		public void stop() {}
+
+		public long getReactions() { return 0; }
+
+		public double getMeanLatency() { return 0; }
+
+		public double getMaxLatency() { return 0; }
+
+		public long getMissed() { return 0; }
+
+		public long getDeanLocks() { return 0; }
+
+		public long getStudentLocks() { return 0; }
+	}
+
+
+	/*
+	Runs one iteration of w on n threads for the given time. Returns its operations per second and adds the sampled
+	latencies, in nanoseconds, to 'latencies' if it is not null.
+	*/
+	static double iterate(Workload w, int n, long millis, long[][] latencies, int[] counts) throws InterruptedException {
+
+		AtomicBoolean stop = new AtomicBoolean(false);
+		long[] ops = new long[n];
+		Thread[] threads = new Thread[n];
+
+		for (int i=0; i<n; i++) {
+			final int id = i;
+			threads[i] = new Thread(() -> {
+				SplittableRandom rnd = new SplittableRandom(id * 0x9E3779B97F4A7C15L);
+				long k = 0;
+				while (!stop.get()) {
+					if (latencies != null && k % SAMPLE == 0 && counts[id] < MAX_SAMPLES) {
+						long start = System.nanoTime();
+						w.op(id, rnd);
+						latencies[id][counts[id]++] = System.nanoTime() - start;
+					} else {
+						w.op(id, rnd);
+					}
+					k++;
+				}
+				ops[id] = k;
+			});
+		}
+
+		Thread helper = w.helper(stop);
+		long start = System.nanoTime();
+		for (Thread t : threads)
+			t.start();
+		if (helper != null)
+			helper.start();
+
+		Thread.sleep(millis);
+		stop.set(true);
+
+		for (Thread t : threads)
+			t.join();
+		if (helper != null)
+			helper.join();
+
+		double secs = (System.nanoTime() - start) / 1e9;
+		long total = 0;
+		for (long k : ops)
+			total += k;
+		return total / secs;
+	}
+
+
+	//The forked run of one workload: prints ops/s, its relative deviation in percent and the p50, p99 and p99.9 in ns
+	static void fork(String name, int n, int warmup, int iterations, long millis) throws InterruptedException {
+
+		Workload w = WORKLOADS.get(name).get();
+		w.setUp(n);
+
+		for (int i=0; i<warmup; i++)
+			iterate(w, n, millis, null, null);
+
+		long[][] latencies = new long[n][MAX_SAMPLES];
+		int[] counts = new int[n];
+		double[] rates = new double[iterations];
+		for (int i=0; i<iterations; i++)
+			rates[i] = iterate(w, n, millis, latencies, counts);
+
+		double mean = 0;
+		for (double r : rates)
+			mean += r / rates.length;
+		double var = 0;
+		for (double r : rates)
+			var += (r - mean) * (r - mean) / rates.length;
+
+		int total = 0;
+		for (int c : counts)
+			total += c;
+		long[] all = new long[total];
+		for (int i=0, k=0; i<n; i++) {
+			System.arraycopy(latencies[i], 0, all, k, counts[i]);
+			k += counts[i];
+		}
+		Arrays.sort(all);
+
+		System.out.printf("%.0f %.1f %d %d %d%n", mean, mean == 0 ? 0 : 100 * Math.sqrt(var) / mean, percentile(all, 0.5),
+			percentile(all, 0.99), percentile(all, 0.999));
+	}
+
+
+	static long percentile(long[] sorted, double p) {
+		return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))];
+	}
+
+
+	//Runs the fork for one workload and thread count in a new JVM and returns its line of results, or null if it failed
+	static String spawn(String name, int n, int warmup, int iterations, long millis) throws IOException, InterruptedException {
+
+		String java = ProcessHandle.current().info().command().orElse("java");
+		Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "PuzzleBench", "-fork", name,
+			String.valueOf(n), String.valueOf(warmup), String.valueOf(iterations), String.valueOf(millis))
+			.redirectErrorStream(true).start();
+
+		String last = null;
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+			for (String line; (line = in.readLine()) != null; )
+				last = line;
+		}
+
+		if (p.waitFor() != 0 || last == null || !last.matches("[0-9. ]+")) {
+			System.out.println(name + " on " + n + " threads failed: " + last);
+			return null;
+		}
+		return last;
+	}
+
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+
+		if (args.length == 6 && args[0].equals("-fork")) {
+			fork(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]), Long.parseLong(args[5]));
+			return;
+		}
+
+		String filter = ".*";
+		int[] threads = {1, 2, 4, 8};
+		int warmup = 3;
+		int iterations = 5;
+		long millis = 200;
+		int forks = 1;
+		String save = null;
+		String baseline = null;
+		double tolerance = 10;
+
+		try {
+			for (int i=0; i<args.length; i++) {
+				if (i + 1 >= args.length)
+					throw new IllegalArgumentException(args[i]);
+				else if (args[i].equals("-filter"))
+					filter = args[++i];
+				else if (args[i].equals("-threads"))
+					threads = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+				else if (args[i].equals("-warmup"))
+					warmup = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-iterations"))
+					iterations = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-time"))
+					millis = Long.parseLong(args[++i]);
+				else if (args[i].equals("-forks"))
+					forks = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-save"))
+					save = args[++i];
+				else if (args[i].equals("-baseline"))
+					baseline = args[++i];
+				else if (args[i].equals("-tolerance"))
+					tolerance = Double.parseDouble(args[++i]);
+				else
+					throw new IllegalArgumentException(args[i]);
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println("Invalid invocation, usage: java PuzzleBench [-filter regex] [-threads 1,2,4,8] [-warmup n] [-iterations n]"
+				+ " [-time ms] [-forks n] [-save file] [-baseline file] [-tolerance percent]");
+			System.exit(-1);
+		}
+
+		HashMap<String, Double> base = new HashMap<String, Double>();
+		if (baseline != null)
+			for (String line : Files.readAllLines(Paths.get(baseline))) {
+				String[] f = line.trim().split("\\s+");
+				if (f.length >= 3)
+					base.put(f[0] + " " + f[1], Double.parseDouble(f[2]));
+			}
+
+		System.out.println("java=" + System.getProperty("java.version") + " cores=" + Runtime.getRuntime().availableProcessors()
+			+ " warmup=" + warmup + "x" + millis + "ms iterations=" + iterations + "x" + millis + "ms forks=" + forks);
+		System.out.printf("%-26s %7s %14s %7s %10s %10s %10s %9s%n", "workload", "threads", "ops/s", "+-%", "p50 ns",
+			"p99 ns", "p99.9 ns", "vs base");
+
+		List<String> results = new ArrayList<String>();
+		int regressions = 0;
+
+		for (String name : WORKLOADS.keySet()) {
+			if (!name.matches(filter))
+				continue;
+
+			for (int n : threads) {
+				double ops = 0, dev = 0;
+				long p50 = 0, p99 = 0, p999 = 0;
+				int ok = 0;
+
+				//Several forks are averaged, each percentile taking the worst fork's
+				for (int f=0; f<forks; f++) {
+					String r = spawn(name, n, warmup, iterations, millis);
+					if (r == null)
+						continue;
+					String[] v = r.trim().split(" ");
+					ops += Double.parseDouble(v[0]);
+					dev = Math.max(dev, Double.parseDouble(v[1]));
+					p50 = Math.max(p50, Long.parseLong(v[2]));
+					p99 = Math.max(p99, Long.parseLong(v[3]));
+					p999 = Math.max(p999, Long.parseLong(v[4]));
+					ok++;
+				}
+				if (ok == 0) {
+					regressions++;
+					continue;
+				}
+				ops /= ok;
+
+				String vs = "";
+				Double b = base.get(name + " " + n);
+				if (b != null && b > 0) {
+					double change = 100 * (ops - b) / b;
+					vs = String.format("%+.1f%%", change);
+					if (change < -tolerance) {
+						vs += " REGRESSED";
+						regressions++;
+					}
+				}
+
+				System.out.printf("%-26s %7d %14.0f %7.1f %10d %10d %10d %9s%n", name, n, ops, dev, p50, p99, p999, vs);
+				results.add(String.format("%s %d %.0f %d", name, n, ops, p99));
+			}
+		}
+
+		if (save != null)
+			Files.write(Paths.get(save), results);
+
+		if (regressions > 0) {
+			System.out.println(regressions + " workload(s) failed or regressed by more than " + tolerance + "%");
+			System.exit(1);
+		}
+	}
+}
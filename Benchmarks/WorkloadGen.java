@@ -0,0 +1,425 @@
+/*
+	WorkloadGen.java - Writes synthetic input files for every Java puzzle, of any size, the same for the same seed.
+
+	The files are in exactly the space separated formats the puzzles read, a count followed by one line per thread:
+
+		sid        - ID, type (S, I or D) and value, for SID2
+		unisex     - ID, gender, arrival and duration, for Unisex
+		multiuser  - ID, arrival, duration and the demand for each resource, for MultiUser1
+		senatebus  - ID and arrival, for SenateBus1, to a passenger file and a bus file
+		roomsearch - ID, arrival and duration, for RoomSearch2
+
+	Arrivals and durations are whole seconds. The threads are written in order of arrival, so the puzzles start each one
+	only shortly before it arrives.
+
+	Arrival processes, given with -arrivals:
+
+		poisson:R            - arrivals at an average R per second, each independent of the others (default poisson:10)
+		bursty:R:B           - bursts of arrivals, each of on average B threads arriving together, R threads per second
+		                       on average over the whole run
+		diurnal:R:P:A        - a Poisson process whose rate swings between R*(1-A) and R*(1+A) per second over a period of
+		                       P seconds, for a daily cycle of load compressed into P
+
+	Durations, given with -duration, are at least 1 second:
+
+		fixed:D              - always D seconds
+		uniform:L:H          - from L to H seconds, all equally likely (default uniform:1:10)
+		exp:M                - exponentially distributed with mean M seconds
+		pareto:M:A           - Pareto distributed with minimum M seconds and shape A, a heavy tail of long stays
+
+	-mix gives the share of each thread type or gender as weights, S:80,I:10,D:10 by default for sid and M:50,F:50 for
+	unisex. Any single char may be given for unisex, as every distinct one is a class. -values n draws SID2's values from 0
+	to n-1, 100 by default. -resources n and -demand m give MultiUser1 n resources with every user demanding from 1 to m of
+	each, 2 and 10 by default.
+
+	For senatebus the buses arrive by the process given with -buses, poisson:0.1 by default, until the last passenger has
+	arrived. Further buses then follow a second apart until every passenger would have boarded with buses of -capacity
+	passengers, 50 by default, so that the run always ends.
+
+	Every random choice is drawn from one generator seeded by -seed, 42 by default, so the same arguments always write the
+	same files.
+
+	Invoke as: java WorkloadGen <sid|unisex|multiuser|senatebus|roomsearch> <count> <output_file> [bus_file]
+	                            [-seed n] [-arrivals process] [-duration distribution] [-mix weights] [-values n]
+	                            [-resources n] [-demand m] [-buses process] [-capacity n]
+*/
+
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.LongSupplier;
+
+
+public class WorkloadGen {
+
+	private final SplittableRandom rnd;
+
+
+	public WorkloadGen(long seed) {
+		rnd = new SplittableRandom(seed);
+	}
+
+
+	//A process giving the arrival time in seconds of each thread in turn, never earlier than the one before
+	interface ArrivalProcess {
+		long next();
+	}
+
+
+	static final class Poisson implements ArrivalProcess {
+
+		private final SplittableRandom rnd;
+		private final double rate;
+		private double t;
+
+
+		Poisson(SplittableRandom r, double rate) {
+			this.rnd = r;
+			this.rate = rate;
+		}
+
+
+		public long next() {
+			t += exponential(rnd, 1 / rate);
+			return (long) t;
+		}
+	}
+
+
+	//Bursts arrive as a Poisson process, each of a geometrically distributed number of threads arriving in the same second
+	static final class Bursty implements ArrivalProcess {
+
+		private final SplittableRandom rnd;
+		private final double burstRate;
+		private final double burst;
+		private double t;
+		private long left;
+
+
+		Bursty(SplittableRandom r, double rate, double burst) {
+			this.rnd = r;
+			this.burstRate = rate / burst;
+			this.burst = burst;
+		}
+
+
+		public long next() {
+			if (left == 0) {
+				t += exponential(rnd, 1 / burstRate);
+				left = 1 + (long) Math.floor(Math.log(1 - rnd.nextDouble()) / Math.log(1 - 1 / burst));
+			}
+			left--;
+			return (long) t;
+		}
+	}
+
+
+	//A Poisson process whose rate follows a sine wave, drawn by thinning one at the peak rate
+	static final class Diurnal implements ArrivalProcess {
+
+		private final SplittableRandom rnd;
+		private final double rate;
+		private final double period;
+		private final double amplitude;
+		private double t;
+
+
+		Diurnal(SplittableRandom r, double rate, double period, double amplitude) {
+			this.rnd = r;
+			this.rate = rate;
+			this.period = period;
+			this.amplitude = amplitude;
+		}
+
+
+		public long next() {
+			double peak = rate * (1 + amplitude);
+			do
+				t += exponential(rnd, 1 / peak);
+			while (rnd.nextDouble() * peak > rate * (1 + amplitude * Math.sin(2 * Math.PI * t / period)));
+			return (long) t;
+		}
+	}
+
+
+	static double exponential(SplittableRandom rnd, double mean) {
+		return -mean * Math.log(1 - rnd.nextDouble());
+	}
+
+
+	//Parses a process such as poisson:10, throwing IllegalArgumentException if it is not one
+	ArrivalProcess arrivals(String spec) {
+		String[] f = spec.split(":");
+		try {
+			if (f[0].equals("poisson") && f.length == 2 && positive(f[1]))
+				return new Poisson(rnd, Double.parseDouble(f[1]));
+			if (f[0].equals("bursty") && f.length == 3 && positive(f[1]) && Double.parseDouble(f[2]) >= 1)
+				return new Bursty(rnd, Double.parseDouble(f[1]), Double.parseDouble(f[2]));
+			if (f[0].equals("diurnal") && f.length == 4 && positive(f[1]) && positive(f[2]) && Double.parseDouble(f[3]) >= 0
+				&& Double.parseDouble(f[3]) <= 1)
+				return new Diurnal(rnd, Double.parseDouble(f[1]), Double.parseDouble(f[2]), Double.parseDouble(f[3]));
+		} catch (NumberFormatException e) {}
+		throw new IllegalArgumentException("Invalid arrival process " + spec + ", must be poisson:R, bursty:R:B or diurnal:R:P:A");
+	}
+
+
+	//Parses a distribution such as uniform:1:10 into a source of durations in whole seconds of at least 1
+	LongSupplier durations(String spec) {
+		String[] f = spec.split(":");
+		try {
+			if (f[0].equals("fixed") && f.length == 2 && positive(f[1])) {
+				long d = Long.parseLong(f[1]);
+				return () -> d;
+			}
+			if (f[0].equals("uniform") && f.length == 3 && positive(f[1]) && Long.parseLong(f[2]) >= Long.parseLong(f[1])) {
+				long lo = Long.parseLong(f[1]);
+				long hi = Long.parseLong(f[2]);
+				return () -> lo + rnd.nextLong(hi - lo + 1);
+			}
+			if (f[0].equals("exp") && f.length == 2 && positive(f[1])) {
+				double mean = Double.parseDouble(f[1]);
+				return () -> Math.max(1, Math.round(exponential(rnd, mean)));
+			}
+			if (f[0].equals("pareto") && f.length == 3 && positive(f[1]) && positive(f[2])) {
+				double min = Double.parseDouble(f[1]);
+				double shape = Double.parseDouble(f[2]);
+				return () -> Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(min / Math.pow(1 - rnd.nextDouble(), 1 / shape))));
+			}
+		} catch (NumberFormatException e) {}
+		throw new IllegalArgumentException("Invalid duration " + spec + ", must be fixed:D, uniform:L:H, exp:M or pareto:M:A");
+	}
+
+
+	private static boolean positive(String s) {
+		return Double.parseDouble(s) > 0;
+	}
+
+
+	//Draws one of the chars of a mix such as S:80,I:10,D:10 in proportion to its weight
+	static final class Mix {
+
+		private final char[] types;
+		private final double[] cumulative;
+
+
+		Mix(String spec) {
+			String[] f = spec.split(",");
+			types = new char[f.length];
+			cumulative = new double[f.length];
+			double sum = 0;
+			for (int i=0; i<f.length; i++) {
+				String[] kv = f[i].split(":");
+				if (kv.length != 2 || kv[0].length() != 1 || kv[0].charAt(0) <= ' ')
+					throw new IllegalArgumentException("Invalid mix " + spec + ", must be weights such as S:80,I:10,D:10");
+				double w = Double.parseDouble(kv[1]);
+				if (w < 0)
+					throw new IllegalArgumentException("Invalid mix " + spec + ", weights must not be negative");
+				types[i] = kv[0].charAt(0);
+				sum += w;
+				cumulative[i] = sum;
+			}
+			if (sum <= 0)
+				throw new IllegalArgumentException("Invalid mix " + spec + ", some weight must be positive");
+		}
+
+
+		char next(SplittableRandom rnd) {
+			double x = rnd.nextDouble() * cumulative[cumulative.length - 1];
+			for (int i=0; i<types.length; i++)
+				if (x < cumulative[i])
+					return types[i];
+			return types[types.length - 1];
+		}
+	}
+
+
+	//Writes a line of fields separated by spaces
+	private static void line(Writer out, Object... fields) throws IOException {
+		for (int i=0; i<fields.length; i++) {
+			if (i > 0)
+				out.write(' ');
+			out.write(String.valueOf(fields[i]));
+		}
+		out.write('\n');
+	}
+
+
+	public void sid(Writer out, int n, Mix mix, int values) throws IOException {
+		line(out, n);
+		for (int i=1; i<=n; i++)
+			line(out, i, mix.next(rnd), rnd.nextInt(values));
+	}
+
+
+	public void unisex(Writer out, int n, ArrivalProcess a, LongSupplier d, Mix mix) throws IOException {
+		line(out, n);
+		for (int i=1; i<=n; i++) {
+			long arrival = a.next();
+			line(out, i, mix.next(rnd), arrival, d.getAsLong());
+		}
+	}
+
+
+	public void multiUser(Writer out, int n, ArrivalProcess a, LongSupplier d, int resources, int demand)
+		throws IOException {
+		line(out, n);
+		StringBuilder demands = new StringBuilder();
+		for (int i=1; i<=n; i++) {
+			long arrival = a.next();
+			long duration = d.getAsLong();
+			demands.setLength(0);
+			for (int j=0; j<resources; j++)
+				demands.append(j == 0 ? "" : " ").append(1 + rnd.nextInt(demand));
+			line(out, i, arrival, duration, demands);
+		}
+	}
+
+
+	public void roomSearch(Writer out, int n, ArrivalProcess a, LongSupplier d) throws IOException {
+		line(out, n);
+		for (int i=1; i<=n; i++) {
+			long arrival = a.next();
+			line(out, i, arrival, d.getAsLong());
+		}
+	}
+
+
+	/*
+	Writes the passengers and then the buses. A passenger arriving in the same second as a bus is not counted as boarding
+	it, since it may well not, so the buses added after the last passenger are enough however such ties go.
+	*/
+	public void senateBus(Writer riders, Writer busOut, int n, ArrivalProcess a, ArrivalProcess b, int capacity)
+		throws IOException {
+
+		long[] buses = new long[16];
+		int numBuses = 0;
+		long waiting = 0;
+		long arrival = 0;
+		long bus = b.next();
+
+		line(riders, n);
+		for (int i=1; i<=n; i++) {
+			arrival = a.next();
+			for (; bus <= arrival; bus = b.next()) {
+				if (numBuses == buses.length)
+					buses = Arrays.copyOf(buses, 2 * numBuses);
+				buses[numBuses++] = bus;
+				waiting = Math.max(0, waiting - capacity);
+			}
+			waiting++;
+			line(riders, i, arrival);
+		}
+
+		//Enough buses a second apart after the last passenger to take everyone still waiting
+		for (long t = arrival + 1; waiting > 0; t++) {
+			if (numBuses == buses.length)
+				buses = Arrays.copyOf(buses, 2 * numBuses);
+			buses[numBuses++] = t;
+			waiting = Math.max(0, waiting - capacity);
+		}
+
+		line(busOut, numBuses);
+		for (int i=0; i<numBuses; i++)
+			line(busOut, i + 1, buses[i]);
+	}
+
+
+	public static void main(String[] args) {
+
+		String usage = "Invalid invocation, usage: java WorkloadGen <sid|unisex|multiuser|senatebus|roomsearch> <count> <output_file> [bus_file]"
+			+ " [-seed n] [-arrivals process] [-duration distribution] [-mix weights] [-values n] [-resources n] [-demand m]"
+			+ " [-buses process] [-capacity n]";
+
+		if (args.length < 3) {
+			System.out.println(usage);
+			System.exit(-1);
+		}
+
+		String puzzle = args[0];
+		String busFile = null;
+		long seed = 42;
+		String arrivals = "poisson:10";
+		String duration = "uniform:1:10";
+		String mix = puzzle.equals("sid") ? "S:80,I:10,D:10" : "M:50,F:50";
+		int values = 100;
+		int resources = 2;
+		int demand = 10;
+		String buses = "poisson:0.1";
+		int capacity = 50;
+		int n = 0;
+
+		try {
+			n = Integer.parseInt(args[1]);
+			for (int i=3; i<args.length; i++) {
+				if (i == 3 && !args[i].startsWith("-"))
+					busFile = args[i];
+				else if (i + 1 >= args.length)
+					throw new IllegalArgumentException(usage);
+				else if (args[i].equals("-seed"))
+					seed = Long.parseLong(args[++i]);
+				else if (args[i].equals("-arrivals"))
+					arrivals = args[++i];
+				else if (args[i].equals("-duration"))
+					duration = args[++i];
+				else if (args[i].equals("-mix"))
+					mix = args[++i];
+				else if (args[i].equals("-values"))
+					values = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-resources"))
+					resources = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-demand"))
+					demand = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-buses"))
+					buses = args[++i];
+				else if (args[i].equals("-capacity"))
+					capacity = Integer.parseInt(args[++i]);
+				else
+					throw new IllegalArgumentException(usage);
+			}
+			if (n < 0 || values < 1 || resources < 1 || demand < 1 || capacity < 1)
+				throw new IllegalArgumentException(usage);
+			if (puzzle.equals("senatebus") != (busFile != null))
+				throw new IllegalArgumentException(usage);
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage() != null && e.getMessage().startsWith("Invalid") ? e.getMessage() : usage);
+			System.exit(-1);
+		}
+
+		WorkloadGen gen = new WorkloadGen(seed);
+
+		try (Writer out = new BufferedWriter(new FileWriter(args[2]), 1 << 16)) {
+			switch (puzzle) {
+				case "sid":
+					gen.sid(out, n, new Mix(mix), values);
+					break;
+				case "unisex":
+					gen.unisex(out, n, gen.arrivals(arrivals), gen.durations(duration), new Mix(mix));
+					break;
+				case "multiuser":
+					gen.multiUser(out, n, gen.arrivals(arrivals), gen.durations(duration), resources, demand);
+					break;
+				case "roomsearch":
+					gen.roomSearch(out, n, gen.arrivals(arrivals), gen.durations(duration));
+					break;
+				case "senatebus":
+					try (Writer busOut = new BufferedWriter(new FileWriter(busFile), 1 << 16)) {
+						gen.senateBus(out, busOut, n, gen.arrivals(arrivals), gen.arrivals(buses), capacity);
+					}
+					break;
+				default:
+					System.out.println("Invalid puzzle " + puzzle + ", must be sid, unisex, multiuser, senatebus or roomsearch");
+					System.exit(-1);
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.exit(-1);
+		} catch (IOException e) {
+			System.out.println("Error, could not write output file: " + e.getMessage());
+			System.exit(-1);
+		}
+	}
+}
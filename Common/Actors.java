@@ -0,0 +1,154 @@
+/*
+	Actors.java - Starts the puzzles' actors on platform threads or on virtual threads.
+
+	Every actor is written as a subclass of Thread, and by default is simply started as one: a platform thread with an OS
+	thread and a native stack of its own, which limits a JVM to some tens of thousands of them. Once useVirtualThreads()
+	is called each actor is instead run by a virtual thread, which costs little more than its heap objects. The virtual
+	thread calls the actor's run() and is the thread the actor sees as Thread.currentThread(), while the actor's own
+	Thread object is never started. So actors must be joined and interrupted through join() and interrupt() here rather
+	than directly.
+
+	Every blocking point in the actors is a ReentrantLock or a park, sleep, join or Condition of the Clock, which all come
+	down to LockSupport.park(). None of them pins a virtual thread to its carrier, so a parked actor gives its carrier up
+	to the others. No actor blocks while holding a monitor.
+
+	Virtual threads need Java 21 or later. They are looked up reflectively so that the puzzles still build and run on
+	older releases, on platform threads.
+
+	In virtual time every actor, on either kind of thread, is run by a thread the Clock starts, so the Clock knows when
+	each one finishes as well as when it blocks.
+
+	A puzzle with many actors starts them through a Group, which counts the actors still running and wakes the thread
+	waiting for them when the last one finishes. Nothing keeps hold of an actor once it has finished, so each actor needs
+	to leave its results somewhere of the puzzle's own and can be collected as soon as it is done.
+*/
+
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public final class Actors {
+
+	private static volatile ThreadFactory virtual;
+
+	//The virtual thread running each actor started on one, until the actor is joined
+	private static final ConcurrentHashMap<Thread, Thread> runners = new ConcurrentHashMap<Thread, Thread>();
+
+
+	private Actors() {}
+
+
+	//Actors started together and waited for together by the thread that made the group
+	public static final class Group {
+
+		private final Thread owner = Thread.currentThread();
+		private final AtomicLong running = new AtomicLong();
+
+
+		//Starts the actor, which can then be neither joined nor interrupted on its own
+		public void start(Thread actor) {
+			running.incrementAndGet();
+			Actors.start(actor, this::finished);
+		}
+
+
+		//Waits until every actor started so far has finished. Must be called from the thread that made the group.
+		public void join() {
+			while (running.get() > 0)
+				Clock.park(this);
+		}
+
+
+		private void finished() {
+			if (running.decrementAndGet() == 0)
+				Clock.unpark(owner);
+		}
+	}
+
+
+	/*
+	Runs every actor started from now on on a virtual thread. Throws UnsupportedOperationException if this Java has no
+	virtual threads.
+	*/
+	public static synchronized void useVirtualThreads() {
+		if (virtual != null)
+			return;
+
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			virtual = (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("Virtual threads need Java 21 or later, this is Java "
+				+ System.getProperty("java.version"));
+		}
+	}
+
+
+	//Whether virtual threads are available, without switching to them
+	public static boolean hasVirtualThreads() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+
+	public static boolean isVirtual() {
+		return virtual != null;
+	}
+
+
+	public static void start(Thread actor) {
+		ThreadFactory f = virtual;
+		if (f == null && !Clock.isVirtual()) {
+			actor.start();
+			return;
+		}
+
+		Thread runner = Clock.start(f != null ? f : r -> new Thread(r, actor.getName()), actor);
+		runners.put(actor, runner);
+	}
+
+
+	//Waits for the actor to finish
+	public static void join(Thread actor) throws InterruptedException {
+		Thread runner = runners.get(actor);
+		if (runner == null) {
+			actor.join();
+			return;
+		}
+
+		Clock.join(runner);
+		runners.remove(actor);
+	}
+
+
+	//Runs the actor on a thread of its own, or a virtual one, that runs 'then' once the actor finishes
+	private static void start(Thread actor, Runnable then) {
+		Runnable r = () -> {
+			try {
+				actor.run();
+			} finally {
+				then.run();
+			}
+		};
+
+		ThreadFactory f = virtual;
+		if (f == null)
+			f = t -> new Thread(t, actor.getName());
+		Clock.start(f, r);
+	}
+
+
+	public static void interrupt(Thread actor) {
+		Thread runner = runners.get(actor);
+		if (runner == null)
+			actor.interrupt();
+		else
+			Clock.interrupt(runner);
+	}
+}
@@ -0,0 +1,69 @@
+/*
+	Arrivals.java - Starts the puzzles' actors as their arrival times come up rather than all at once.
+
+	The puzzles' actors each sleep until their arrival time, measured from the start of the run, before they do anything.
+	Started all at once, every actor of a scenario exists, with its thread, from the first instant. When the input file is
+	in order of arrival the thread reading it instead waits until each actor is due, starting it a short lead ahead of its
+	arrival, so only the actors that have arrived and those about to are alive at any time. When it is not in order every
+	actor is started as soon as it is read, as before, since one due early may come after many due late.
+
+	Either way an actor sleeps in awaitArrival() until its arrival time from the start of the run, rather than for its
+	arrival time from when it was started, so it arrives on time whenever it was started. In virtual time it is also
+	woken among the actors due at the same time in the same order as if it had been started with the run, so a paced run
+	plays out exactly as an unpaced one.
+
+	The thread reading the file is registered with the Clock, so virtual time does not pass while it is still reading and
+	starting actors, until it calls finish() once it is done with the run.
+*/
+
+
+public final class Arrivals {
+
+	//Milliseconds ahead of its arrival that a paced actor is started
+	private static final long LEAD = 100;
+
+	private final boolean paced;
+	private final long start;
+
+
+	//Starts the run now, pacing actors if the input is in order of arrival. Must be called from the thread starting them.
+	public Arrivals(boolean paced) {
+		this.paced = paced;
+		Clock.register(Thread.currentThread());
+		this.start = Clock.currentTimeMillis();
+	}
+
+
+	public boolean isPaced() {
+		return paced;
+	}
+
+
+	/*
+	Starts the actor in the group, first waiting until it is nearly due if paced. Arrival is in milliseconds from the start
+	of the run.
+	*/
+	public void admit(Thread actor, long arrival, Actors.Group group) {
+		long wait = start + arrival - LEAD - Clock.currentTimeMillis();
+		if (paced && wait > 0) {
+			try {
+				Clock.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		group.start(actor);
+	}
+
+
+	//Sleeps until the given arrival, in milliseconds from the start of the run
+	public void awaitArrival(long arrival) throws InterruptedException {
+		Clock.sleepUntil(start + arrival, start);
+	}
+
+
+	//Lets virtual time pass without the thread that started the actors. Must be called from that thread.
+	public void finish() {
+		Clock.leave();
+	}
+}
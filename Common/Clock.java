@@ -0,0 +1,599 @@
+/*
+	Clock.java - The time every puzzle's actors sleep and measure their waits by, either real or virtual.
+
+	By default the Clock is simply System.currentTimeMillis(), System.nanoTime() and Thread.sleep(). Once useVirtual() is
+	called it keeps a virtual time instead, starting at 0, that only moves when every actor is blocked. Sleeping then
+	costs no real time at all: a scenario with a 60 second horizon runs as fast as its actors can process its events, and
+	reports the same idle times, only without the scheduling noise of a real run.
+
+	Actors are the threads started through start(), or registered with register(). The Clock counts the actors that may
+	run. An actor leaves the count whenever it blocks in the Clock: sleeping, parked in park() or parkNanos(), waiting on a
+	Condition made by newCondition() or joining another actor in join(). It is put back in the count by whoever wakes it,
+	before it is woken: the actor firing its timer, unparking it, signalling it, interrupting it through interrupt() or
+	finishing while it is joined. So the count is never 0 while some actor may still run, however long the OS takes to
+	schedule it. An actor that finishes leaves the count for good, as does a registered thread calling leave().
+
+	Whichever actor takes the count to 0 moves the time to that of the earliest timer and wakes its actor, all while still
+	holding the Clock's lock, so no other actor can run in between. A thread waiting for a lock is counted as running,
+	since the actor holding it is and will release it without any time passing.
+
+	Actors due at the same time are woken one by one, each only once the count has gone back to 0, as they would be in a
+	real run where they wake some milliseconds apart. The one that went to sleep first is woken first, and of those that
+	went to sleep at the same time the one started first, so runs are repeatable however loaded the machine is.
+
+	Every blocking point of the puzzles' actors must therefore go through the Clock, which in real time simply passes
+	them on to LockSupport and the lock's own Condition. Timed waits go through parkNanos() so that their timeouts are
+	virtual as well.
+*/
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+public final class Clock {
+
+	//What an actor is blocked in, which decides what may wake it
+	private static final int SLEEPING = 1;
+	private static final int PARKED = 2;
+	private static final int JOINING = 3;
+	private static final int AWAITING = 4;
+
+	private static volatile boolean virtual;
+	private static volatile long now;
+
+	//guard must be held for all of the following
+	private static final ReentrantLock guard = new ReentrantLock();
+	private static final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+	private static final HashMap<Thread, Actor> actors = new HashMap<Thread, Actor>();
+	private static int running;
+	private static long tickets;
+	private static long registered;
+
+
+	//A thread known to the Clock, counted if it is an actor. Only 'blocked' is read without the guard.
+	private static final class Actor {
+
+		final Thread thread;
+		final long rank;
+		final boolean counted;
+		volatile boolean blocked;
+		int blockedIn;
+		boolean permit;
+		ArrayList<Actor> joiners;
+
+
+		Actor(Thread t, long r, boolean c) {
+			this.thread = t;
+			this.rank = r;
+			this.counted = c;
+		}
+	}
+
+
+	//An actor sleeping until the virtual time reaches 'due', since the time 'since'
+	private static final class Timer implements Comparable<Timer> {
+
+		final long due;
+		final long since;
+		final long ticket;
+		final Actor actor;
+		boolean fired;
+
+
+		Timer(long d, long s, long t, Actor a) {
+			this.due = d;
+			this.since = s;
+			this.ticket = t;
+			this.actor = a;
+		}
+
+
+		public int compareTo(Timer t) {
+			if (due != t.due)
+				return Long.compare(due, t.due);
+			if (since != t.since)
+				return Long.compare(since, t.since);
+			if (actor.rank != t.actor.rank)
+				return Long.compare(actor.rank, t.actor.rank);
+			return Long.compare(ticket, t.ticket);
+		}
+	}
+
+
+	/*
+	A Condition of a ReentrantLock whose waiters the Clock counts. Only the methods the puzzles use are offered, and like
+	a Condition's they must be called with the lock held.
+
+	The waiting is left to the lock's own Condition, so signalled waiters take the lock back in the order they waited, and
+	the Clock only keeps its waiters in the same order to count the ones each signal wakes.
+	*/
+	public static final class Condition {
+
+		private final java.util.concurrent.locks.Condition cond;
+
+		//Virtual time only, the lock must be held
+		private final ArrayDeque<Actor> waiters = new ArrayDeque<Actor>();
+
+
+		Condition(ReentrantLock lock) {
+			this.cond = lock.newCondition();
+		}
+
+
+		public void awaitUninterruptibly() {
+			if (virtual) {
+				guard.lock();
+				try {
+					Actor a = self();
+					waiters.addLast(a);
+					block(a, AWAITING);
+				} finally {
+					guard.unlock();
+				}
+			}
+			cond.awaitUninterruptibly();
+		}
+
+
+		public void signal() {
+			if (virtual && !waiters.isEmpty()) {
+				guard.lock();
+				try {
+					resume(waiters.pollFirst());
+				} finally {
+					guard.unlock();
+				}
+			}
+			cond.signal();
+		}
+
+
+		public void signalAll() {
+			if (virtual && !waiters.isEmpty()) {
+				guard.lock();
+				try {
+					for (Actor a; (a = waiters.pollFirst()) != null; )
+						resume(a);
+				} finally {
+					guard.unlock();
+				}
+			}
+			cond.signalAll();
+		}
+	}
+
+
+	private Clock() {}
+
+
+	/*
+	Switches to virtual time. Must be called before any actor is started, and once switched the Clock stays virtual.
+	*/
+	public static void useVirtual() {
+		virtual = true;
+	}
+
+
+	public static boolean isVirtual() {
+		return virtual;
+	}
+
+
+	public static long currentTimeMillis() {
+		return virtual ? now / 1000000 : System.currentTimeMillis();
+	}
+
+
+	public static long nanoTime() {
+		return virtual ? now : System.nanoTime();
+	}
+
+
+	/*
+	Starts an actor running r on a thread made by the factory and returns the thread. The actor leaves the Clock's count
+	once r returns, so the thread must be joined through join() rather than directly.
+	*/
+	public static Thread start(ThreadFactory factory, Runnable r) {
+
+		if (!virtual) {
+			Thread t = factory.newThread(r);
+			t.start();
+			return t;
+		}
+
+		Thread t = factory.newThread(() -> {
+			try {
+				r.run();
+			} finally {
+				leave();
+			}
+		});
+		register(t);
+		t.start();
+		return t;
+	}
+
+
+	/*
+	Makes t an actor, virtual time will not pass while it is runnable. Must be called before t is started, or by t
+	itself, which then stays an actor until it calls leave().
+	*/
+	public static void register(Thread t) {
+		if (!virtual)
+			return;
+
+		guard.lock();
+		try {
+			//A thread that used the Clock before being registered was given an uncounted Actor
+			Actor a = actors.get(t);
+			if (a == null || !a.counted) {
+				actors.put(t, new Actor(t, registered++, true));
+				running++;
+			}
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	/*
+	Takes the calling actor out of the count for good, waking any actor joining it. Called as an actor started by start()
+	finishes, and by a thread that registered itself once it no longer takes part in the run.
+	*/
+	public static void leave() {
+		if (!virtual)
+			return;
+
+		guard.lock();
+		try {
+			Actor a = actors.remove(Thread.currentThread());
+			if (a == null)
+				return;
+
+			if (a.counted)
+				running--;
+			if (a.joiners != null)
+				for (Actor j : a.joiners)
+					wake(j);
+			fire();
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	//Waits for t to finish, t having been started by start()
+	public static void join(Thread t) throws InterruptedException {
+
+		if (!virtual) {
+			t.join();
+			return;
+		}
+
+		Actor a;
+		Actor target;
+		guard.lock();
+		try {
+			a = self();
+			target = actors.get(t);
+			if (target != null) {
+				if (target.joiners == null)
+					target.joiners = new ArrayList<Actor>();
+				target.joiners.add(a);
+				block(a, JOINING);
+			}
+		} finally {
+			guard.unlock();
+		}
+
+		if (target != null) {
+			awaitWake(a, t);
+
+			//Still an actor, so woken by an interrupt
+			guard.lock();
+			try {
+				if (actors.get(t) == target) {
+					target.joiners.remove(a);
+					Thread.interrupted();
+					throw new InterruptedException();
+				}
+			} finally {
+				guard.unlock();
+			}
+		}
+
+		//It has already left the count, only its thread may still be finishing
+		t.join();
+	}
+
+
+	//Interrupts the actor running on t, waking it if it is sleeping, parked or joining
+	public static void interrupt(Thread t) {
+
+		if (!virtual) {
+			t.interrupt();
+			return;
+		}
+
+		guard.lock();
+		try {
+			t.interrupt();
+			Actor a = actors.get(t);
+			if (a != null && a.blocked && a.blockedIn != AWAITING)
+				wake(a);
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	public static void sleep(long millis) throws InterruptedException {
+
+		if (!virtual) {
+			Thread.sleep(millis);
+			return;
+		}
+
+		sleepFor(now + Math.max(0, millis * 1000000), now);
+	}
+
+
+	/*
+	Sleeps until the time 'millis', as given by currentTimeMillis(). In virtual time the thread is woken among those due
+	at the same time as if it had gone to sleep at the time 'since', so an actor started late still wakes in the order it
+	would have had it been started at 'since'.
+	*/
+	public static void sleepUntil(long millis, long since) throws InterruptedException {
+
+		if (!virtual) {
+			long wait = millis - System.currentTimeMillis();
+			if (wait > 0)
+				Thread.sleep(wait);
+			return;
+		}
+
+		sleepFor(Math.max(now, millis * 1000000), Math.min(now, since * 1000000));
+	}
+
+
+	private static void sleepFor(long due, long since) throws InterruptedException {
+
+		Actor a;
+		Timer t;
+		guard.lock();
+		try {
+			if (Thread.interrupted())
+				throw new InterruptedException();
+
+			a = self();
+			t = schedule(a, due, since);
+			block(a, SLEEPING);
+		} finally {
+			guard.unlock();
+		}
+
+		awaitWake(a, t);
+		if (!cancel(t)) {
+			Thread.interrupted();
+			throw new InterruptedException();
+		}
+	}
+
+
+	/*
+	As LockSupport.park(), returning once unparked through unpark() or interrupted, or spuriously. Callers must recheck
+	what they are waiting for.
+	*/
+	public static void park(Object blocker) {
+
+		if (!virtual) {
+			LockSupport.park(blocker);
+			return;
+		}
+
+		Actor a;
+		guard.lock();
+		try {
+			a = self();
+			if (takePermit(a))
+				return;
+			block(a, PARKED);
+		} finally {
+			guard.unlock();
+		}
+
+		awaitWake(a, blocker);
+	}
+
+
+	/*
+	As LockSupport.parkNanos(), returning once unparked, interrupted or after 'nanos' have passed, or spuriously. Callers
+	must recheck the time they have left against nanoTime().
+	*/
+	public static void parkNanos(Object blocker, long nanos) {
+
+		if (!virtual) {
+			LockSupport.parkNanos(blocker, nanos);
+			return;
+		}
+
+		if (nanos <= 0)
+			return;
+
+		Actor a;
+		Timer t;
+		guard.lock();
+		try {
+			a = self();
+			if (takePermit(a))
+				return;
+			t = schedule(a, now + nanos, now);
+			block(a, PARKED);
+		} finally {
+			guard.unlock();
+		}
+
+		awaitWake(a, t);
+		cancel(t);
+	}
+
+
+	//As LockSupport.unpark(), making the next park() by t return straight away if t is not parked
+	public static void unpark(Thread t) {
+
+		if (!virtual) {
+			LockSupport.unpark(t);
+			return;
+		}
+
+		guard.lock();
+		try {
+			Actor a = actors.get(t);
+			if (a == null)
+				LockSupport.unpark(t);
+			else if (a.blocked && a.blockedIn == PARKED)
+				wake(a);
+			else
+				a.permit = true;
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	/*
+	Discards the permit an unpark() may have left the calling thread, without waiting for one. In real time that is a
+	park of a nanosecond, which returns at once if there is a permit and otherwise no later than the OS's timer slack.
+	*/
+	public static void clearPermit(Object blocker) {
+
+		if (!virtual) {
+			LockSupport.parkNanos(blocker, 1);
+			return;
+		}
+
+		guard.lock();
+		try {
+			self().permit = false;
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	//A Condition of the lock whose waiters the Clock counts
+	public static Condition newCondition(ReentrantLock lock) {
+		return new Condition(lock);
+	}
+
+
+	//Guard must be held for the following
+
+	//The calling thread's Actor, a thread that is not an actor is given one the Clock does not count
+	private static Actor self() {
+		Thread th = Thread.currentThread();
+		Actor a = actors.get(th);
+		if (a == null) {
+			a = new Actor(th, Long.MAX_VALUE, false);
+			actors.put(th, a);
+		}
+		return a;
+	}
+
+
+	private static boolean takePermit(Actor a) {
+		if (a.permit) {
+			a.permit = false;
+			return true;
+		}
+		return a.thread.isInterrupted();
+	}
+
+
+	private static Timer schedule(Actor a, long due, long since) {
+		Timer t = new Timer(due, since, tickets++, a);
+		timers.add(t);
+		return t;
+	}
+
+
+	//Takes the actor out of the count, moving the time on if it was the last one that could run
+	private static void block(Actor a, int in) {
+		a.blocked = true;
+		a.blockedIn = in;
+		if (a.counted)
+			running--;
+		fire();
+	}
+
+
+	//Puts a blocked actor back in the count and unparks it
+	private static void wake(Actor a) {
+		if (resume(a))
+			LockSupport.unpark(a.thread);
+	}
+
+
+	//Puts a blocked actor back in the count, returning whether it was blocked
+	private static boolean resume(Actor a) {
+		if (!a.blocked)
+			return false;
+
+		a.blocked = false;
+		a.blockedIn = 0;
+		if (a.counted)
+			running++;
+		return true;
+	}
+
+
+	//While no actor may run, moves the time to the earliest timer and wakes its actor
+	private static void fire() {
+		while (running == 0 && !timers.isEmpty()) {
+			Timer t = timers.poll();
+			now = Math.max(now, t.due);
+			t.fired = true;
+			wake(t.actor);
+		}
+	}
+
+
+	//Guard must not be held for the following
+
+	//Parks the calling actor until it is woken, by whatever it was waiting for or by an interrupt
+	private static void awaitWake(Actor a, Object waitingOn) {
+
+		while (a.blocked) {
+			LockSupport.park(waitingOn);
+
+			//Interrupted other than through interrupt(), which would have woken it already
+			if (a.blocked && Thread.currentThread().isInterrupted()) {
+				guard.lock();
+				try {
+					wake(a);
+				} finally {
+					guard.unlock();
+				}
+			}
+		}
+	}
+
+
+	//Takes the timer out of the queue if it has not fired, returning whether it had
+	private static boolean cancel(Timer t) {
+		guard.lock();
+		try {
+			if (!t.fired)
+				timers.remove(t);
+			return t.fired;
+		} finally {
+			guard.unlock();
+		}
+	}
+}
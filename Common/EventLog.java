@@ -0,0 +1,148 @@
+/*
+	EventLog.java - Records what the puzzles' actors do without them ever writing to System.out themselves.
+
+	Every println is a synchronized, blocking write, so an actor printing as it enters or leaves, let alone while holding
+	a lock, waits on the console and on every other printing actor. Instead actors log typed events here: a Format, two
+	numbers and optionally an object that already exists, such as a snapshot or an array a pool returned. Logging takes
+	no lock and allocates nothing, the text is only rendered later by a single background writer.
+
+	The events go into a ring buffer preallocated as parallel arrays. A logging thread claims the next sequence number
+	with one getAndIncrement, fills in the slot it maps to and publishes it with a release store of its sequence number.
+	The writer takes the slots in sequence order as they are published, renders them into a buffer and prints that in
+	one write, so the lines come out in the order the events were claimed. Only when the buffer is full, the writer
+	having fallen a whole ring behind, does a logging thread wait, yielding until its slot has been taken.
+
+	Text output may be turned off with setText(false), events are then still taken off the ring but never rendered.
+
+	Anything printed directly must come after flush(), which waits until every event logged before it has been written.
+*/
+
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+public final class EventLog {
+
+	//Renders one event as a line of text, without the line separator
+	public interface Format {
+		void render(StringBuilder out, long a, long b, Object ref);
+	}
+
+
+	private static final int CAPACITY = 1 << 16;
+	private static final int MASK = CAPACITY - 1;
+
+	//How long the writer parks when it finds the ring empty, and the text it buffers before printing
+	private static final long IDLE = 1000000;
+	private static final int CHUNK = 1 << 16;
+
+	private static final AtomicLong claimed = new AtomicLong();
+
+	//The slots, each published by storing its sequence number plus one
+	private static final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+	private static final Format[] formats = new Format[CAPACITY];
+	private static final long[] as = new long[CAPACITY];
+	private static final long[] bs = new long[CAPACITY];
+	private static final Object[] refs = new Object[CAPACITY];
+
+	//Events the writer has taken off the ring, and of those the ones whose text has been printed
+	private static volatile long consumed;
+	private static volatile long written;
+	private static volatile boolean text = true;
+
+	private static final Thread writer = new Thread(EventLog::write, "event log");
+
+	static {
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+
+	private EventLog() {}
+
+
+	public static void setText(boolean t) {
+		text = t;
+	}
+
+
+	public static void log(Format f, long a) {
+		log(f, a, 0, null);
+	}
+
+
+	public static void log(Format f, long a, long b) {
+		log(f, a, b, null);
+	}
+
+
+	public static void log(Format f, long a, long b, Object ref) {
+		long seq = claimed.getAndIncrement();
+
+		while (seq - consumed >= CAPACITY) {
+			LockSupport.unpark(writer);
+			Thread.yield();
+		}
+
+		int i = (int) seq & MASK;
+		formats[i] = f;
+		as[i] = a;
+		bs[i] = b;
+		refs[i] = ref;
+		published.lazySet(i, seq + 1);
+	}
+
+
+	//Waits until every event logged so far has been written out
+	public static void flush() {
+		long target = claimed.get();
+		while (written < target) {
+			LockSupport.unpark(writer);
+			Thread.yield();
+		}
+	}
+
+
+	//The writer's loop
+	private static void write() {
+
+		StringBuilder out = new StringBuilder(CHUNK + 256);
+		String separator = System.lineSeparator();
+		long next = 0;
+
+		while (true) {
+			int i = (int) next & MASK;
+
+			if (published.get(i) != next + 1) {
+				print(out, next);
+				LockSupport.parkNanos(IDLE);
+				continue;
+			}
+
+			if (text) {
+				formats[i].render(out, as[i], bs[i], refs[i]);
+				out.append(separator);
+			}
+			refs[i] = null;
+			consumed = ++next;
+
+			if (out.length() >= CHUNK)
+				print(out, next);
+		}
+	}
+
+
+	//Prints what has been rendered, once every event before 'next' is in it
+	private static void print(StringBuilder out, long next) {
+		if (out.length() > 0) {
+			PrintStream stdout = System.out;
+			stdout.append(out);
+			stdout.flush();
+			out.setLength(0);
+		}
+		written = next;
+	}
+}
@@ -0,0 +1,180 @@
+/*
+	ScenarioFile.java - Reads the space separated input files of every puzzle, however large, without a Scanner.
+
+	Every input file is a count followed by that many records of whitespace separated fields, each an integer or a single
+	char such as a thread type or gender. The file is memory mapped a window at a time and its bytes parsed directly, so
+	reading a field allocates nothing and no regular expression is involved, and nothing of the file is held beyond the
+	window the OS keeps paged in. A puzzle reads each record as it starts its actor instead of first copying the whole file
+	into arrays.
+
+	Malformed input throws the same exceptions a Scanner would: InputMismatchException for a field that is not what was
+	asked for and NoSuchElementException for a file that ends early.
+*/
+
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+
+public final class ScenarioFile implements Closeable {
+
+	//Bytes mapped at a time, the largest a MappedByteBuffer allows is 2GB
+	private static final long WINDOW = 1L << 28;
+
+	private final FileChannel channel;
+	private final long size;
+	private MappedByteBuffer window;
+	private long base;
+
+
+	//Throws FileNotFoundException if there is no such file
+	public ScenarioFile(String path) throws IOException {
+		try {
+			channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			throw new FileNotFoundException(path);
+		}
+		size = channel.size();
+		map(0);
+	}
+
+
+	private void map(long at) throws IOException {
+		base = at;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, at, Math.min(WINDOW, size - at));
+	}
+
+
+	//The next byte, or -1 at the end of the file
+	private int read() {
+		if (!window.hasRemaining()) {
+			long next = base + window.limit();
+			if (next >= size)
+				return -1;
+			try {
+				map(next);
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not map input file", e);
+			}
+		}
+		return window.get() & 0xff;
+	}
+
+
+	//The first byte of the next field, or -1 at the end of the file
+	private int start() {
+		int b;
+		do
+			b = read();
+		while (b != -1 && b <= ' ');
+		return b;
+	}
+
+
+	//Whether there is another field
+	public boolean hasNext() {
+		int b = start();
+		if (b == -1)
+			return false;
+		window.position(window.position() - 1);
+		return true;
+	}
+
+
+	public int nextInt() {
+		int b = start();
+		if (b == -1)
+			throw new NoSuchElementException();
+
+		boolean negative = b == '-';
+		if (negative)
+			b = read();
+
+		long value = 0;
+		int digits = 0;
+		for (; b > ' '; b = read(), digits++) {
+			if (b < '0' || b > '9' || value > Integer.MAX_VALUE)
+				throw new InputMismatchException("Not an integer at byte " + (base + window.position() - 1));
+			value = value * 10 + (b - '0');
+		}
+
+		value = negative ? -value : value;
+		if (digits == 0 || value > Integer.MAX_VALUE || value < Integer.MIN_VALUE)
+			throw new InputMismatchException("Not an integer at byte " + (base + window.position()));
+		return (int) value;
+	}
+
+
+	//The first char of the next field, the rest of the field is skipped
+	public char nextChar() {
+		int b = start();
+		if (b == -1)
+			throw new NoSuchElementException();
+		skipRest();
+		return (char) b;
+	}
+
+
+	public void skip() {
+		if (start() == -1)
+			throw new NoSuchElementException();
+		skipRest();
+	}
+
+
+	private void skipRest() {
+		int b;
+		do
+			b = read();
+		while (b > ' ');
+	}
+
+
+	//Goes back to the start of the file
+	public void rewind() throws IOException {
+		if (base == 0)
+			window.position(0);
+		else
+			map(0);
+	}
+
+
+	/*
+	Whether the records, each of 'fields' fields, are in order of the integer field 'field', counting from 0. Reads the
+	file through once then rewinds it.
+	*/
+	public boolean isSortedBy(int fields, int field) throws IOException {
+		rewind();
+		int n = nextInt();
+		long last = Long.MIN_VALUE;
+		boolean sorted = true;
+
+		for (int i=0; i<n && sorted; i++) {
+			for (int j=0; j<fields; j++) {
+				if (j != field) {
+					skip();
+					continue;
+				}
+				int v = nextInt();
+				sorted = v >= last;
+				last = v;
+			}
+		}
+
+		rewind();
+		return sorted;
+	}
+
+
+	public void close() throws IOException {
+		channel.close();
+	}
+}
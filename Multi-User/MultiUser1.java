@@ -16,149 +16,356 @@
 	This specifies 2 users. The first has ID=1, arrival time in seconds=7, duration in seconds=4, memory required=9, processes required=5
 	and so on for the 2nd thread.
 	
-	Invoke as follows: java MultiUser1 <User_files> <total_memory> <total_processes>
+	Invoke as follows: java MultiUser1 <User_files> <total_memory> <total_processes> [-policy fifo|bestfit|smallest|backfill] [-timeout s] [-slo ms] [-striped] [-shards n [-placement least|two|hash] [-rebalance]] [-virtual] [-vthreads] [-quiet]
+	
+	Any number of resources may be given instead of memory and processes, one total per resource on the command line and one
+	requirement per resource on each user's line after its duration. For example CPU, memory, GPU slots and licenses:
+	
+	java MultiUser1 <User_files> 16 64 4 2
+	
+	1 7 4 2 8 0 1
+	
+	By default resources are handed out by a ResourceAllocator. A releasing user hands what it returns directly to the waiting
+	users that now fit, considered in the order given by the policy, rather than waking every waiting user to race for them.
+	The backfill policy also uses each user's duration to hold resources back for the longest waiting user, letting others
+	ahead of it only if they will be done in time.
+	With -striped a StripedResourcePool is used instead, which gives every resource its own lock so users needing disjoint
+	resources never contend. It has no policy, waiting users retry as the resource they are short of is released.
+	
+	With -shards n the totals are spread over n nodes by a ShardedResourcePool, each node with its own lock and queue, and
+	every user must run on a single node chosen by the placement strategy. -rebalance lets nodes with capacity to spare take
+	waiting users from the others.
+	
+	With -timeout s a user that has waited s seconds gives up without running. With -slo ms every user granted resources
+	within ms milliseconds counts as a hit and every other one as a miss, and the hit and miss ratios are printed with a
+	histogram of how long users waited. Both need the default ResourceAllocator.
+	
+	Once every user has finished, the share of each resource in use is printed for every second of the run, followed by the
+	average share over the whole run.
+	
+	With -virtual the run is timed by a virtual Clock which skips ahead whenever every user is blocked, so it finishes as
+	fast as the users' events can be processed and reports the idle times a real run would. With -vthreads every user runs
+	on a virtual thread rather than a platform thread, on Java 21 or later.
+	
+	The input file is memory mapped and read by a ScenarioFile, and each user is started as its line is read. If the file
+	is in order of arrival each user is only started shortly before it arrives, so large scenarios never have every user
+	alive at once.
+	
+	Users never print as they go: what they do is logged to the EventLog and printed by its own thread, so no user waits
+	on the console. With -quiet it is not printed at all, only the utilization, idle times and SLO figures.
 	
 	Author: Justin Underhay
 */
 
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.Condition;
-import java.util.Scanner;
-import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 
 
 public class MultiUser1 {
 	
-	private int available_memory;
-	private int available_processes;
-	private final ReentrantLock resourceLock = new ReentrantLock();
-	private final Condition resourceCond = resourceLock.newCondition();
+	private final ResourcePool pool;
+	private final long timeout;
+	private Arrivals arrivals;
+	
+	//The ID and idle time of every user, in the order they were read
+	private int[] ids;
+	private double[] idles;
+	
+	//The events each user logs, with its ID
+	private static final EventLog.Format ARRIVED = (out, id, b, ref) -> out.append("User ").append(id).append(" has arrived");
+	private static final EventLog.Format NEVER = (out, id, b, reason) -> out.append("User ").append(id)
+		.append(" can never be allocated resources: ").append(reason);
+	private static final EventLog.Format CANCELLED = (out, id, b, ref) -> out.append("User ").append(id).append(" was cancelled while waiting");
+	private static final EventLog.Format GAVE_UP = (out, id, timeout, ref) -> out.append("User ").append(id).append(" gave up after waiting ")
+		.append(timeout).append(" seconds");
+	private static final EventLog.Format ALLOCATED = (out, id, b, left) -> out.append("User ").append(id)
+		.append(" has been allocated resources. ").append(describe((int[]) left));
+	private static final EventLog.Format FINISHED = (out, id, b, left) -> out.append("User ").append(id).append(" has finished. ")
+		.append(describe((int[]) left));
 
 	
 	/*
-	To initialize the problem's global variables
+	To initialize the problem's global variables. A user gives up after waiting timeout seconds, or never if it is 0.
 	*/
-	public MultiUser1(int am, int ap) {
-		available_memory = am;
-		available_processes = ap;
+	public MultiUser1(ResourcePool p, long timeout) {
+		pool = p;
+		this.timeout = timeout;
 	}
 	
 	
-	//Main method calls here where all threads are initialized and have their attributes set
-	public void init(int[][] a) {
+	//Main method calls here where each thread is created and started as its attributes are read from the input file
+	public void init(ScenarioFile in, int dims) throws IOException {
+		arrivals = new Arrivals(in.isSortedBy(3 + dims, 1));
 		
-		//Create and start all threads
-		User[] users = new User[a.length];
+		ArrayList<int[]> samples = new ArrayList<int[]>();
+		Thread sampler = new Thread(() -> sample(samples));
+		sampler.setDaemon(true);
+		Actors.start(sampler);
 		
-		for (int i=0; i<a.length; i++)
-			users[i] = new User(a[i]);
+		/*
+		Create and start each user, only once it is nearly due if the file is in order of arrival. Each leaves its idle
+		time at its place in the file, so no user is held on to once it has finished.
+		*/
+		int numThreads = in.nextInt();
+		Actors.Group users = new Actors.Group();
+		int[] a = new int[3 + dims];
+		ids = new int[numThreads];
+		idles = new double[numThreads];
 		
-		for (int i=0; i<a.length; i++) 
-			users[i].start();
+		for (int i=0; i<numThreads; i++) {
+			for (int j=0; j<a.length; j++)
+				a[j] = in.nextInt();
+			ids[i] = a[0];
+			arrivals.admit(new User(i, a), 1000L*a[1], users);
+		}
 		
+		users.join();
 		try {
-			for (int i=0; i<a.length; i++) 
-				users[i].join();
+			Actors.interrupt(sampler);
+			Actors.join(sampler);
 		} catch (InterruptedException e) {}	
+		arrivals.finish();
+		EventLog.flush();
+		
+		printUtilization(samples);
 		
 		double sum = 0;
-		for (int i=0; i<a.length; i++) { 
-			System.out.println("User " + users[i].attributes[0] + " idle time: " + users[i].idle/1000);
-			sum += users[i].idle/1000;
+		for (int i=0; i<numThreads; i++) { 
+			System.out.println("User " + ids[i] + " idle time: " + idles[i]/1000);
+			sum += idles[i]/1000;
 		}
 
-		System.out.println("\n\nAverage idle time: " + sum/a.length);	
+		System.out.println("\n\nAverage idle time: " + sum/numThreads);	
+		
+		if (pool instanceof ResourceAllocator && (timeout > 0 || ((ResourceAllocator) pool).getSlo() >= 0))
+			printSlo((ResourceAllocator) pool);
+	}	
+	
+	
+	private void printSlo(ResourceAllocator allocator) {
+		long hits = allocator.getSloHits();
+		long misses = allocator.getSloMisses();
+		long total = Math.max(1, hits + misses);
+		
+		System.out.printf("SLO of %d ms hits: %d (%.1f%%) - misses: %d (%.1f%%) - timed out: %d - cancelled: %d%n", allocator.getSlo(), hits, 100.0 * hits / total,
+			misses, 100.0 * misses / total, allocator.getTimeouts(), allocator.getCancellations());
+		
+		System.out.println("Wait histogram:");
+		long[] buckets = allocator.getWaitHistogram();
+		for (int i=0; i<buckets.length; i++)
+			if (buckets[i] > 0)
+				System.out.printf("  < %12.3f ms: %d%n", (1L << i) / 1000.0, buckets[i]);
+		System.out.printf("Longest wait: %.3f ms%n", allocator.getMaxWait());
+	}	
+	
+	
+	/*
+	Records what is available of every resource halfway through each second, users arrive and leave on whole seconds.
+	Stops when interrupted.
+	*/
+	private void sample(ArrayList<int[]> samples) {
+		long start = Clock.currentTimeMillis();
+		
+		try {
+			for (int t=0; ; t++) {
+				long wait = start + 500 + 1000L*t - Clock.currentTimeMillis();
+				if (wait > 0)
+					Clock.sleep(wait);
+				samples.add(pool.getAvailable());
+			}
+		} catch (InterruptedException e) {}
+	}	
+	
+	
+	private void printUtilization(ArrayList<int[]> samples) {
+		int[] totals = pool.getTotals();
+		double[] sum = new double[totals.length];
+		
+		System.out.println("\nUtilization over time (% of each resource in use):");
+		
+		for (int t=0; t<samples.size(); t++) {
+			StringBuilder line = new StringBuilder("Second " + t + ":");
+			for (int i=0; i<totals.length; i++) {
+				double used = totals[i] == 0 ? 0 : 100.0 * (totals[i] - samples.get(t)[i]) / totals[i];
+				sum[i] += used;
+				line.append(String.format(" %6.1f", used));
+			}
+			System.out.println(line);
+		}
 		
+		StringBuilder line = new StringBuilder("Average utilization:");
+		for (int i=0; i<totals.length; i++)
+			line.append(String.format(" %6.1f", samples.isEmpty() ? 0 : sum[i] / samples.size()));
+		System.out.println(line + "\n");
 	}	
 	
 	
 	class User extends Thread {
 	
-		//In order: ID, arrival, duration, memory needed, processes needed
-		private int[] attributes = new int[5];
-		private double idle;
+		//In order: ID, arrival, duration, then the amount needed of each resource (memory and processes by default)
+		private int[] attributes;
+		private int place;
 		
 		
-		public User(int[] a) {
-			for (int i=0; i<5; i++)
-				this.attributes[i] = a[i];
+		public User(int p, int[] a) {
+			this.place = p;
+			this.attributes = a.clone();
 		}	
 		
 		
 		/*
 		User thread entry point. Users enter and take up resources. If a user arrives and not enough resources are available it blocks.
-		Exiting threads release resources and signal all waiting users who check if they can enter. Since all threads are woken it cannot
-		be predicted which thread will gain access, only that if a thread does get through there are enough resources for it.	
+		Exiting threads release resources which the allocator hands straight to the waiting users that now fit, in policy order,
+		so only users that can actually enter are woken.
 		*/
 		public void run() {
 			
 			try {
-				Thread.sleep(1000*attributes[1]);
-				long start = System.currentTimeMillis();
-				resourceLock.lock();
-				
-				System.out.println("User " + attributes[0] + " has arrived");
+				arrivals.awaitArrival(1000L*attributes[1]);
+			} catch (InterruptedException e) {}
+			
+			int[] demand = Arrays.copyOfRange(attributes, 3, attributes.length);
+			long start = Clock.currentTimeMillis();
+			
+			EventLog.log(ARRIVED, attributes[0]);
+			
+			ResourcePool.Grant grant;
+			try {
+				if (timeout > 0)
+					grant = ((ResourceAllocator) pool).tryAcquire(demand, 1000L*attributes[2], timeout, TimeUnit.SECONDS);
+				else
+					grant = pool.acquire(demand, 1000L*attributes[2]);
+			} catch (IllegalArgumentException e) {
+				EventLog.log(NEVER, attributes[0], 0, e.getMessage());
+				return;
+			} catch (InterruptedException e) {
+				EventLog.log(CANCELLED, attributes[0]);
+				return;
+			}
 			
-				while (available_memory < attributes[3] || available_processes < attributes[4])
-					resourceCond.await();
-				
-				idle = (double) (System.currentTimeMillis() - start);
-				available_memory -= attributes[3];
-				available_processes -= attributes[4];
-				
-				System.out.println("User " + attributes[0] + " has been allocated resources. Remaining memory: " + available_memory + " - Remaining processes: " + available_processes);
-				
-				resourceLock.unlock();
-				
-				Thread.sleep(1000*attributes[2]);
-				
-				resourceLock.lock();
-				
-				available_memory += attributes[3];
-				available_processes += attributes[4];
-				
-				System.out.println("User " + attributes[0] + " has finished. Remaining memory: " + available_memory + " - Remaining processes: " + available_processes);
-				
-				resourceCond.signalAll();
-				
-				resourceLock.unlock();
-				
+			idles[place] = (double) (Clock.currentTimeMillis() - start);
+			
+			if (grant == null) {
+				EventLog.log(GAVE_UP, attributes[0], timeout);
+				return;
+			}
+			
+			EventLog.log(ALLOCATED, attributes[0], 0, grant.getLeft());
+			
+			try {
+				Clock.sleep(1000*attributes[2]);
 			} catch (InterruptedException e) {}
 			
+			EventLog.log(FINISHED, attributes[0], 0, pool.release(grant));
+			
 		}	
 	}	
 	
 	
+	private static String describe(int[] left) {
+		if (left.length == 2)
+			return "Remaining memory: " + left[0] + " - Remaining processes: " + left[1];
+		return "Remaining resources: " + Arrays.toString(left);
+	}	
+	
+	
 	/*
-	Main method reads input file and sends data to create threads.
+	Main method opens the input file and sends it to create threads.
 	*/
 	public static void main(String[] args) {
 		
-		if (args.length != 3) {
-			System.out.println("Invalid invocation, usage: java MultiUser1 <input-file> <total_memory> <total_processes>");
+		String policy = "fifo";
+		boolean striped = false;
+		int shards = 0;
+		String placement = "least";
+		boolean rebalance = false;
+		long timeout = 0;
+		long slo = -1;
+		boolean virtual = false;
+		boolean vthreads = false;
+		boolean quiet = false;
+		int[] totals = new int[args.length];
+		int dims = 0;
+		
+		try {
+			for (int i=1; i<args.length; i++) {
+				if (args[i].equals("-policy") && i + 1 < args.length)
+					policy = args[++i];
+				else if (args[i].equals("-striped"))
+					striped = true;
+				else if (args[i].equals("-shards") && i + 1 < args.length)
+					shards = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-placement") && i + 1 < args.length)
+					placement = args[++i];
+				else if (args[i].equals("-rebalance"))
+					rebalance = true;
+				else if (args[i].equals("-timeout") && i + 1 < args.length)
+					timeout = Long.parseLong(args[++i]);
+				else if (args[i].equals("-slo") && i + 1 < args.length)
+					slo = Long.parseLong(args[++i]);
+				else if (args[i].equals("-virtual"))
+					virtual = true;
+				else if (args[i].equals("-vthreads"))
+					vthreads = true;
+				else if (args[i].equals("-quiet"))
+					quiet = true;
+				else
+					totals[dims++] = Integer.parseInt(args[i]);
+			}
+		} catch (NumberFormatException e) {
+			dims = 0;
+		}
+		
+		boolean allocator = !striped && shards == 0;
+		
+		if (args.length < 1 || dims < 1 || shards < 0 || (striped && shards > 0) || timeout < 0 || (!allocator && (timeout > 0 || slo >= 0))) {
+			System.out.println("Invalid invocation, usage: java MultiUser1 <input-file> <total_memory> <total_processes> [-policy fifo|bestfit|smallest|backfill] [-timeout s] [-slo ms] [-striped] [-shards n [-placement least|two|hash] [-rebalance]] [-virtual] [-vthreads] [-quiet]");
 			System.exit(-1);
 		}
-
-		Scanner fileReader;
+		totals = Arrays.copyOf(totals, dims);
 		
-		try {
-			fileReader = new Scanner(new File(args[0]));
-			
-			int numThreads = fileReader.nextInt();
-			int[][] attributes = new int[numThreads][5];
-			
-			for (int i=0; i<numThreads; i++)
-				for (int j=0; j<5; j++) 
-					attributes[i][j] = fileReader.nextInt();	
-			
-			
-			MultiUser1 ex = new MultiUser1(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
-			ex.init(attributes);
+		if (!policy.equals("fifo") && !policy.equals("bestfit") && !policy.equals("smallest") && !policy.equals("backfill")) {
+			System.out.println("Invalid policy " + policy + ", must be fifo, bestfit, smallest or backfill");
+			System.exit(-1);
+		}
+		
+		if (!placement.equals("least") && !placement.equals("two") && !placement.equals("hash")) {
+			System.out.println("Invalid placement " + placement + ", must be least, two or hash");
+			System.exit(-1);
+		}
+		
+		EventLog.setText(!quiet);
+		if (virtual)
+			Clock.useVirtual();
+		if (vthreads) {
+			try {
+				Actors.useVirtualThreads();
+			} catch (UnsupportedOperationException e) {
+				System.out.println(e.getMessage() + ", running on platform threads");
+			}
+		}
+		
+		ResourcePool pool;
+		if (shards > 0)
+			pool = new ShardedResourcePool(totals, shards, placement, rebalance);
+		else if (striped)
+			pool = new StripedResourcePool(totals);
+		else
+			pool = new ResourceAllocator(totals, policy, slo);
+
+		try (ScenarioFile in = new ScenarioFile(args[0])) {
+			MultiUser1 ex = new MultiUser1(pool, timeout);
+			ex.init(in, dims);
 			
 		} catch (FileNotFoundException e) {
 			System.out.println("Error, could not find input file(s).");
 			System.exit(-1);
+		} catch (IOException e) {
+			System.out.println("Error, could not read input file: " + e.getMessage());
+			System.exit(-1);
 		}	
 	}	
 }
\ No newline at end of file
@@ -0,0 +1,142 @@
+/*
+	MultiUserBench.java - Measures how admission scales with the number of threads and of nodes the resources are spread over.
+
+	Each thread repeatedly acquires a random demand of memory and processes, between 1 and 8 of each, and immediately
+	releases it, for a fixed time. The pools compared are:
+
+		global   - one ResourceAllocator guarding both resources with a single lock, as MultiUser1 uses by default
+		striped  - a StripedResourcePool, one lock per resource
+		least-N  - a ShardedResourcePool of N nodes with least loaded placement and rebalancing
+		two-N    - the same with power of two choices placement
+		hash-N   - the same with every thread hashed to a node
+
+	For every pool the throughput in admissions per second and the mean admission latency, the time spent inside acquire(),
+	is printed. The totals are spread over the nodes of the sharded pools so every pool holds the same amount overall, and
+	must leave every node room for the largest demand.
+
+	Invoke as: java MultiUserBench [total_per_resource] [millis_per_run]
+*/
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+
+public class MultiUserBench {
+
+	private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+	private static final int[] SHARDS = {4, 16};
+
+
+	//Runs n threads against p for the given time, returns admissions per second and mean latency in microseconds
+	static double[] run(ResourcePool p, int n, long millis) throws InterruptedException {
+
+		AtomicBoolean stop = new AtomicBoolean(false);
+		long[] counts = new long[n];
+		long[] waited = new long[n];
+		Thread[] threads = new Thread[n];
+
+		for (int i=0; i<n; i++) {
+			final int id = i;
+			threads[i] = new Thread(() -> {
+				ThreadLocalRandom r = ThreadLocalRandom.current();
+				int[] demand = new int[2];
+				long ops = 0, wait = 0;
+
+				while (!stop.get()) {
+					demand[0] = 1 + r.nextInt(8);
+					demand[1] = 1 + r.nextInt(8);
+
+					long start = System.nanoTime();
+					ResourcePool.Grant g = p.acquire(demand);
+					wait += System.nanoTime() - start;
+					p.release(g);
+					ops++;
+				}
+				counts[id] = ops;
+				waited[id] = wait;
+			});
+		}
+
+		long start = System.nanoTime();
+		for (Thread t : threads)
+			t.start();
+
+		Thread.sleep(millis);
+		stop.set(true);
+
+		for (Thread t : threads)
+			t.join();
+
+		double secs = (System.nanoTime() - start) / 1e9;
+		long total = 0, wait = 0;
+		for (int i=0; i<n; i++) {
+			total += counts[i];
+			wait += waited[i];
+		}
+
+		return new double[] {total / secs, total == 0 ? 0 : wait / 1e3 / total};
+	}
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int total = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+
+		if (total < 8 * SHARDS[SHARDS.length - 1]) {
+			System.out.println("The total per resource must be at least " + 8 * SHARDS[SHARDS.length - 1]);
+			System.exit(-1);
+		}
+		int[] totals = {total, total};
+
+		String[] names = new String[2 + 3 * SHARDS.length];
+		List<Supplier<ResourcePool>> pools = new ArrayList<Supplier<ResourcePool>>();
+
+		names[0] = "global";
+		pools.add(() -> new ResourceAllocator(totals, "fifo"));
+		names[1] = "striped";
+		pools.add(() -> new StripedResourcePool(totals));
+
+		int k = 2;
+		for (int s : SHARDS)
+			for (String placement : new String[] {"least", "two", "hash"}) {
+				names[k++] = placement + "-" + s;
+				pools.add(() -> new ShardedResourcePool(totals, s, placement, true));
+			}
+
+		double[][][] results = new double[THREADS.length][names.length][];
+		for (int t=0; t<THREADS.length; t++)
+			for (int i=0; i<names.length; i++) {
+				//A short warm up of each before measuring
+				run(pools.get(i).get(), THREADS[t], millis / 5);
+				results[t][i] = run(pools.get(i).get(), THREADS[t], millis);
+			}
+
+		System.out.println("total=" + total + " per resource, " + Runtime.getRuntime().availableProcessors() + " cores");
+
+		System.out.println("\nAdmissions per second");
+		printTable(names, results, 0, "%10.0f");
+
+		System.out.println("\nMean admission latency (microseconds)");
+		printTable(names, results, 1, "%10.1f");
+	}
+
+
+	private static void printTable(String[] names, double[][][] results, int column, String format) {
+		System.out.printf("%8s", "threads");
+		for (String n : names)
+			System.out.printf("%10s", n);
+		System.out.println();
+
+		for (int t=0; t<THREADS.length; t++) {
+			System.out.printf("%8d", THREADS[t]);
+			for (int i=0; i<names.length; i++)
+				System.out.printf(format, results[t][i][column]);
+			System.out.println();
+		}
+	}
+}
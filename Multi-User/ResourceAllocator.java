@@ -0,0 +1,688 @@
+/*
+	ResourceAllocator.java - Hands out a fixed amount of several resources (memory and processes in MultiUser1) to users who
+	each need some of every resource before they may run.
+
+	A user whose demand fits in what is available takes it straight away. Otherwise it is parked in the waiter index. A release
+	returns resources then hands them directly to waiters that now fit, one at a time in policy order, until nobody else fits.
+	Each release only unparks users who can actually run and nobody is woken to recheck.
+
+	Policies:
+
+		fifo     - (default) the longest waiting user that fits goes next, users that do not fit are skipped
+		bestfit  - the largest demand that fits goes next, packing the freed resources as fully as possible
+		smallest - the smallest demand goes next, most users admitted per release
+		backfill - EASY backfilling using the durations users declare, see below
+
+	Waiters are indexed by their demand. Users with identical demands share a DemandClass holding them in arrival order, and
+	the classes are kept in a TreeSet ordered by size, the sum over every resource of the fraction of its total the demand
+	needs. A demand can only fit when its size is no more than the size of what is available, so a release only looks at the
+	distinct demands up to that size rather than at every waiting user.
+
+	Under backfill the longest waiting user is the head of the line. If it does not fit, it is given a reservation: the
+	earliest time enough resources will be free for it, assuming every running user leaves when its declared duration is
+	up. Other users, arriving or waiting, may only go ahead of it if they fit now and will be done before the reservation
+	starts, or only need resources the head will not use even then. Large users can therefore no longer be overtaken
+	forever by a stream of small ones, and the small ones still fill the holes left while the head waits. A user that
+	declares no duration is taken to run forever. Running users still holding resources past their declared duration are
+	taken to be just about to leave. Times within SLACK of each other count as the same time, since users never leave
+	exactly when they said they would.
+
+	Users with a deadline call tryAcquire(), which gives up once the timeout passes or the thread is interrupted. Giving up
+	unlinks the user from its DemandClass, and drops the class from the TreeSet if it was the last one in it, in O(log n)
+	under the guard. Since resources are only ever handed to a waiter under the guard too, a user either finds it was
+	granted resources just before giving up, and keeps them, or is gone before any release can see it, so no resources
+	are ever left behind for a user that is no longer waiting. A queued user cannot tell whether one of its parks took the
+	releasing thread's unpark, since the grant may land before its first park, as a park times out or as it gives up, so
+	once granted it always waits for that unpark and discards the permit, which cannot then cut short the next park of
+	whatever the thread does. When a park had taken it already that costs one more park of a nanosecond.
+
+	Every request's wait is recorded in a histogram of power of two microsecond buckets, and counted as a hit if it was
+	granted within the SLO given to the constructor or as a miss if it took longer, timed out or was cancelled.
+*/
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+public class ResourceAllocator implements ResourcePool {
+
+	private static final long SLACK = 50000000L;
+	private static final int BUCKETS = 48;
+
+	private final int[] totals;
+	private final int[] available;
+	private final String policy;
+	private final ReentrantLock guard = new ReentrantLock();
+	private final HashMap<Demand, DemandClass> classes = new HashMap<Demand, DemandClass>();
+	private final TreeSet<DemandClass> bySize;
+	private int waiting;
+	private long tickets;
+
+	//Wait accounting, guard must be held
+	private final long slo;
+	private final long[] waitBuckets = new long[BUCKETS];
+	private long maxWait;
+	private long sloHits;
+	private long sloMisses;
+	private long timeouts;
+	private long cancellations;
+
+	//Backfill only: users holding resources and when they said they would be done, and the head's spare resources
+	private final ArrayList<Running> running = new ArrayList<Running>();
+	private final int[] spare;
+
+
+	//A parked user, its place in its DemandClass and the resources left once it was granted them
+	static final class Waiter {
+
+		final Thread thread;
+		final long ticket;
+		final DemandClass cls;
+		final long duration;
+		final long since;
+		Waiter prev;
+		Waiter next;
+		Waiter link;
+		int[] remaining;
+		volatile boolean granted;
+		volatile boolean woken;
+
+
+		Waiter(Thread t, long n, DemandClass c, long d, long s) {
+			this.thread = t;
+			this.ticket = n;
+			this.cls = c;
+			this.duration = d;
+			this.since = s;
+		}
+	}
+
+
+	//A user holding resources and the time, in nanoseconds, it declared it would release them by
+	static final class Running {
+
+		final int[] demand;
+		final long end;
+
+
+		Running(int[] d, long e) {
+			this.demand = d;
+			this.end = e;
+		}
+	}
+
+
+	//An int[] demand usable as a HashMap key
+	static final class Demand {
+
+		final int[] v;
+
+
+		Demand(int[] d) {
+			this.v = d;
+		}
+
+
+		public boolean equals(Object o) {
+			return o instanceof Demand && Arrays.equals(v, ((Demand) o).v);
+		}
+
+
+		public int hashCode() {
+			return Arrays.hashCode(v);
+		}
+	}
+
+
+	//Every waiting user with the same demand, oldest first
+	static final class DemandClass {
+
+		final Demand demand;
+		final double size;
+		Waiter head;
+		Waiter tail;
+
+
+		DemandClass(Demand d, double s) {
+			this.demand = d;
+			this.size = s;
+		}
+	}
+
+
+	public ResourceAllocator(int[] totals, String policy) {
+		this(totals, policy, -1);
+	}
+
+
+	//As above, counting requests granted within sloMillis milliseconds as hits, or every request if sloMillis is negative
+	public ResourceAllocator(int[] totals, String policy, long sloMillis) {
+
+		if (!policy.equals("fifo") && !policy.equals("bestfit") && !policy.equals("smallest") && !policy.equals("backfill"))
+			throw new IllegalArgumentException("Unknown policy " + policy + ", must be fifo, bestfit, smallest or backfill");
+
+		for (int t : totals)
+			if (t < 0)
+				throw new IllegalArgumentException("Resource totals may not be negative");
+
+		this.totals = totals.clone();
+		this.available = totals.clone();
+		this.policy = policy;
+		this.spare = new int[totals.length];
+		this.slo = sloMillis < 0 ? Long.MAX_VALUE : sloMillis * 1000000L;
+		this.bySize = new TreeSet<DemandClass>(Comparator.<DemandClass>comparingDouble(c -> c.size)
+			.thenComparing((a, b) -> Arrays.compare(a.demand.v, b.demand.v)));
+	}
+
+
+	/*
+	Blocks until demand can be met then takes it. The grant holds the resources left available just after it was taken.
+	A demand larger than the total of any resource can never be met and is rejected with IllegalArgumentException.
+	*/
+	public Grant acquire(int[] demand) {
+		return acquire(demand, -1);
+	}
+
+
+	/*
+	As acquire(demand) for a user that will hold the resources for about 'millis' milliseconds, or for an unknown time if
+	millis is negative. Only the backfill policy makes use of the duration.
+	*/
+	public Grant acquire(int[] demand, long millis) {
+
+		checkDemand(demand);
+		Waiter w = join(demand, millis);
+
+		//Interrupts are ignored, the user is admitted only by a releasing user
+		while (!w.granted)
+			Clock.park(this);
+
+		return new Grant(this, demand.clone(), w.remaining, -1);
+	}
+
+
+	/*
+	As acquire(demand, millis) but gives up once it has waited 'timeout', returning null, or once the thread is interrupted,
+	throwing InterruptedException. A user that gives up has taken nothing and leaves nothing behind.
+	*/
+	public Grant tryAcquire(int[] demand, long millis, long timeout, TimeUnit unit) throws InterruptedException {
+
+		checkDemand(demand);
+		if (Thread.interrupted())
+			throw new InterruptedException();
+
+		long deadline = Clock.nanoTime() + unit.toNanos(timeout);
+		Waiter w = join(demand, millis);
+		boolean interrupted = false;
+
+		while (!w.granted) {
+			if (Thread.interrupted()) {
+				if (abandon(w, false))
+					throw new InterruptedException();
+				//Granted just before the interrupt, keep the resources and the interrupt
+				interrupted = true;
+				break;
+			}
+
+			long left = deadline - Clock.nanoTime();
+			if (left <= 0) {
+				if (abandon(w, true))
+					return null;
+				break;
+			}
+			Clock.parkNanos(this, left);
+		}
+
+		//A queued user was granted by a releasing thread that unparks it, whether or not it is still parked by then
+		if (w.ticket != -1) {
+			while (!w.woken)
+				Thread.onSpinWait();
+
+			//Taken out and restored only after, a park with the interrupt set may return at once and leave the permit
+			interrupted |= Thread.interrupted();
+			Clock.clearPermit(this);
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		return new Grant(this, demand.clone(), w.remaining, -1);
+	}
+
+
+	//Takes demand straight away if it may, otherwise queues a waiter for it. Returns the granted waiter in the first case.
+	private Waiter join(int[] demand, long millis) {
+
+		long duration = millis < 0 ? Long.MAX_VALUE : millis * 1000000L;
+		Waiter w;
+
+		guard.lock();
+		try {
+			long now = Clock.nanoTime();
+
+			if (fits(demand) && (waiting == 0 || !policy.equals("backfill") || backfills(demand, duration, now))) {
+				take(demand, duration);
+				record(0);
+				w = new Waiter(Thread.currentThread(), -1, null, duration, now);
+				w.remaining = available.clone();
+				w.granted = true;
+				return w;
+			}
+
+			Demand key = new Demand(demand.clone());
+			DemandClass c = classes.get(key);
+			if (c == null) {
+				c = new DemandClass(key, size(demand));
+				classes.put(key, c);
+				bySize.add(c);
+			}
+
+			w = new Waiter(Thread.currentThread(), tickets++, c, duration, now);
+			w.prev = c.tail;
+			if (c.tail == null)
+				c.head = w;
+			else
+				c.tail.next = w;
+			c.tail = w;
+			waiting++;
+		} finally {
+			guard.unlock();
+		}
+		return w;
+	}
+
+
+	/*
+	Removes a waiter that timed out or was cancelled, unless it was already granted resources. Returns whether it was
+	removed. Under backfill the waiter may have been the head holding others back, so they are admitted if they now fit.
+	*/
+	private boolean abandon(Waiter w, boolean timedOut) {
+
+		Waiter granted;
+
+		guard.lock();
+		try {
+			if (w.remaining != null)
+				return false;
+
+			unlink(w);
+			sloMisses++;
+			if (timedOut)
+				timeouts++;
+			else
+				cancellations++;
+
+			granted = grantWaiters();
+		} finally {
+			guard.unlock();
+		}
+
+		wake(granted);
+		return true;
+	}
+
+
+	/*
+	Returns what was granted and hands resources to every waiter that now fits in policy order. Returns the resources
+	left available once those waiters were admitted.
+	*/
+	public int[] release(Grant grant) {
+
+		grant.retire(this);
+		int[] demand = grant.demand;
+		Waiter granted = null;
+		int[] left;
+
+		guard.lock();
+		try {
+			for (int i=0; i<available.length; i++) {
+				if (available[i] + demand[i] > totals[i])
+					throw new IllegalStateException("Released more than was acquired");
+				available[i] += demand[i];
+			}
+			finished(demand);
+
+			granted = grantWaiters();
+			left = available.clone();
+		} finally {
+			guard.unlock();
+		}
+
+		wake(granted);
+		return left;
+	}
+
+
+	//Number of users parked waiting for resources
+	public int getQueueLength() {
+		guard.lock();
+		try {
+			return waiting;
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	public int[] getTotals() {
+		return totals.clone();
+	}
+
+
+	//The SLO in milliseconds, or -1 if every granted request counts as a hit
+	public long getSlo() {
+		return slo == Long.MAX_VALUE ? -1 : slo / 1000000L;
+	}
+
+
+	//Requests granted within the SLO
+	public long getSloHits() {
+		guard.lock();
+		try {
+			return sloHits;
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	//Requests granted after the SLO, timed out or cancelled
+	public long getSloMisses() {
+		guard.lock();
+		try {
+			return sloMisses;
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	public long getTimeouts() {
+		guard.lock();
+		try {
+			return timeouts;
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	public long getCancellations() {
+		guard.lock();
+		try {
+			return cancellations;
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	/*
+	The number of granted requests that waited in each bucket, bucket 0 holding those that waited under a microsecond and
+	bucket i those that waited from 2^(i-1) up to 2^i microseconds.
+	*/
+	public long[] getWaitHistogram() {
+		guard.lock();
+		try {
+			return waitBuckets.clone();
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	//The longest any granted request has waited in milliseconds
+	public double getMaxWait() {
+		guard.lock();
+		try {
+			return maxWait / 1e6;
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	public int[] getAvailable() {
+		guard.lock();
+		try {
+			return available.clone();
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	//Guard must be held for the following
+
+	//Hands resources to every waiter that now fits in policy order, returns them to be woken once the guard is released
+	private Waiter grantWaiters() {
+		Waiter granted = null;
+		Waiter w;
+		long now = Clock.nanoTime();
+
+		while ((w = pick()) != null) {
+			unlink(w);
+			take(w.cls.demand.v, w.duration);
+			record(now - w.since);
+			w.remaining = available.clone();
+			w.link = granted;
+			granted = w;
+		}
+		return granted;
+	}
+
+
+	private void record(long wait) {
+		long micros = wait / 1000;
+		waitBuckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))]++;
+		maxWait = Math.max(maxWait, wait);
+		if (wait <= slo)
+			sloHits++;
+		else
+			sloMisses++;
+	}
+
+
+	//The waiter to admit next under the policy, or null if no waiter fits
+	private Waiter pick() {
+		if (policy.equals("backfill"))
+			return pickBackfill();
+
+		double free = size(available);
+		DemandClass best = null;
+
+		for (DemandClass c : bySize) {
+			if (c.size > free)
+				break;
+			if (!fits(c.demand.v))
+				continue;
+			if (policy.equals("smallest"))
+				return c.head;
+			if (best == null || policy.equals("bestfit") || c.head.ticket < best.head.ticket)
+				best = c;
+		}
+		return best == null ? null : best.head;
+	}
+
+
+	//The head of the line if it fits, otherwise the longest waiting user that may be backfilled ahead of it
+	private Waiter pickBackfill() {
+		Waiter head = null;
+		for (DemandClass c : bySize)
+			if (head == null || c.head.ticket < head.ticket)
+				head = c.head;
+
+		if (head == null || fits(head.cls.demand.v))
+			return head;
+
+		long now = Clock.nanoTime();
+		long shadow = reserve(head.cls.demand.v, now);
+		double free = size(available);
+		Waiter best = null;
+
+		for (DemandClass c : bySize) {
+			if (c.size > free)
+				break;
+			if (!fits(c.demand.v))
+				continue;
+
+			//Users with the same demand may still have declared different durations
+			boolean extra = withinSpare(c.demand.v);
+			for (Waiter w = c.head; w != null && (best == null || w.ticket < best.ticket); w = w.next)
+				if (extra || end(now, w.duration) <= end(shadow, SLACK)) {
+					best = w;
+					break;
+				}
+		}
+		return best;
+	}
+
+
+	//Whether a user that fits now may go ahead of the head of the line
+	private boolean backfills(int[] demand, long duration, long now) {
+		Waiter head = null;
+		for (DemandClass c : bySize)
+			if (head == null || c.head.ticket < head.ticket)
+				head = c.head;
+
+		long shadow = reserve(head.cls.demand.v, now);
+		return end(now, duration) <= end(shadow, SLACK) || withinSpare(demand);
+	}
+
+
+	/*
+	The earliest time the head's demand fits if running users leave when they said they would, or Long.MAX_VALUE if it
+	never does. Leaves in spare what the head will not need of the resources free at that time, counting every user due
+	to leave by then.
+	*/
+	private long reserve(int[] head, long now) {
+		running.sort((a, b) -> Long.compare(a.end, b.end));
+		System.arraycopy(available, 0, spare, 0, spare.length);
+
+		long shadow = now;
+		int i = 0;
+		while (!within(head, spare)) {
+			if (i == running.size()) {
+				shadow = Long.MAX_VALUE;
+				break;
+			}
+			Running r = running.get(i++);
+			for (int k=0; k<spare.length; k++)
+				spare[k] += r.demand[k];
+			shadow = Math.max(now, r.end);
+		}
+
+		while (shadow != Long.MAX_VALUE && i < running.size() && running.get(i).end <= end(shadow, SLACK)) {
+			Running r = running.get(i++);
+			for (int k=0; k<spare.length; k++)
+				spare[k] += r.demand[k];
+		}
+
+		for (int k=0; k<spare.length; k++)
+			spare[k] -= head[k];
+		return shadow;
+	}
+
+
+	private boolean withinSpare(int[] demand) {
+		return within(demand, spare);
+	}
+
+
+	private static boolean within(int[] demand, int[] free) {
+		for (int i=0; i<demand.length; i++)
+			if (demand[i] > free[i])
+				return false;
+		return true;
+	}
+
+
+	private static long end(long now, long duration) {
+		return duration > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + duration;
+	}
+
+
+	//Forgets the running user with this demand that expected to finish first
+	private void finished(int[] demand) {
+		int found = -1;
+		for (int i=0; i<running.size(); i++)
+			if (Arrays.equals(running.get(i).demand, demand) && (found == -1 || running.get(i).end < running.get(found).end))
+				found = i;
+		if (found != -1)
+			running.remove(found);
+	}
+
+
+	//Removes w from its class, dropping the class once it is empty
+	private void unlink(Waiter w) {
+		DemandClass c = w.cls;
+
+		if (w.prev == null)
+			c.head = w.next;
+		else
+			w.prev.next = w.next;
+
+		if (w.next == null)
+			c.tail = w.prev;
+		else
+			w.next.prev = w.prev;
+
+		w.prev = w.next = null;
+		waiting--;
+
+		if (c.head == null) {
+			classes.remove(c.demand);
+			bySize.remove(c);
+		}
+	}
+
+
+	private boolean fits(int[] demand) {
+		return within(demand, available);
+	}
+
+
+	private void take(int[] demand, long duration) {
+		for (int i=0; i<available.length; i++)
+			available[i] -= demand[i];
+		if (policy.equals("backfill"))
+			running.add(new Running(demand.clone(), end(Clock.nanoTime(), duration)));
+	}
+
+
+	private double size(int[] v) {
+		double s = 0;
+		for (int i=0; i<totals.length; i++)
+			if (totals[i] > 0)
+				s += (double) v[i] / totals[i];
+		return s;
+	}
+
+
+	private static void wake(Waiter granted) {
+		for (Waiter w = granted; w != null; ) {
+			Waiter next = w.link;
+			Thread t = w.thread;
+			w.granted = true;
+			Clock.unpark(t);
+			w.woken = true;
+			w = next;
+		}
+	}
+
+
+	private void checkDemand(int[] demand) {
+		if (demand.length != totals.length)
+			throw new IllegalArgumentException("Demand must name every resource");
+
+		for (int i=0; i<demand.length; i++)
+			if (demand[i] < 0 || demand[i] > totals[i])
+				throw new IllegalArgumentException("Demand can never be met: " + demand[i] + " of resource " + i + " with a total of " + totals[i]);
+	}
+}
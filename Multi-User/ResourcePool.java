@@ -0,0 +1,85 @@
+/*
+	ResourcePool.java - Something users acquire a vector of resources from and later release it back to, one entry per
+	resource the pool was created with.
+
+	Acquiring returns a Grant, which is what the user later hands back to release exactly what it took from exactly where
+	it took it. The grant and release both give the amount of every resource left available just after the call took
+	effect. Implementations may only guarantee that for the resources the demand actually touched.
+*/
+
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+public interface ResourcePool {
+
+	/*
+	A demand a pool has granted, what the pool had left just after and, for pools split into nodes, the node it was taken
+	from. It may only be released once and only to the pool that granted it.
+	*/
+	final class Grant {
+
+		final ResourcePool pool;
+		final int[] demand;
+		final int[] left;
+		final int node;
+		private final AtomicBoolean released = new AtomicBoolean(false);
+
+
+		Grant(ResourcePool p, int[] d, int[] l, int n) {
+			this.pool = p;
+			this.demand = d;
+			this.left = l;
+			this.node = n;
+		}
+
+
+		public int[] getDemand() {
+			return demand.clone();
+		}
+
+
+		//The amount of every resource left available just after the grant
+		public int[] getLeft() {
+			return left;
+		}
+
+
+		//Marks the grant released to p, throwing IllegalStateException if p did not grant it or it was released already
+		void retire(ResourcePool p) {
+			if (pool != p)
+				throw new IllegalStateException("Released to a pool that did not grant it: " + Arrays.toString(demand));
+			if (!released.compareAndSet(false, true))
+				throw new IllegalStateException("Released more than was acquired: " + Arrays.toString(demand));
+		}
+	}
+
+
+	/*
+	Blocks until every entry of demand can be taken at once, then takes them all.
+	*/
+	Grant acquire(int[] demand);
+
+
+	/*
+	As acquire(demand) for a user that declares it will hold the resources for about 'millis' milliseconds. Pools that
+	schedule by duration use it, the others ignore it.
+	*/
+	default Grant acquire(int[] demand, long millis) {
+		return acquire(demand);
+	}
+
+
+	/*
+	Returns what was granted to the pool, admitting any waiting users it now satisfies.
+	*/
+	int[] release(Grant grant);
+
+
+	int[] getTotals();
+
+
+	//The amount of every resource available right now
+	int[] getAvailable();
+}
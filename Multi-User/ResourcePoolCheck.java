@@ -0,0 +1,178 @@
+/*
+	ResourcePoolCheck.java - Stress checks the ResourcePools MultiUser1 can run on, the StripedResourcePool above all.
+
+	Every round builds a pool over a random number of resource dimensions with random totals, and a number of threads
+	repeatedly acquire a random demand vector, hold it briefly and release it. Most demands touch only some dimensions, so
+	striped acquisitions lock different sets of stripes and overlap in every way. Each thread adds its demand to a shared
+	count of what is held once acquire returns and takes it off before it calls release, so the count never runs ahead of
+	the pool, and the following must hold:
+
+		- No dimension is ever held beyond its total, and no call reports a negative amount left on a dimension it touched.
+		- On a ShardedResourcePool, no node ever has more of a dimension held through the grants it made than its share,
+		  and once everything has been released every node has exactly its share available again.
+		- Every thread gets through all of its acquisitions, so no waiter is ever left parked.
+		- Once every thread has finished everything has been returned and the pool reports its totals available again.
+
+	Half the rounds use a StripedResourcePool, the rest a ResourceAllocator under each policy or a ShardedResourcePool
+	under each placement, with and without rebalancing. Demands are kept small enough to fit on a single node.
+
+	OK is printed if every round passes, otherwise the first failure is printed and the exit status is 1.
+
+	Invoke as: java ResourcePoolCheck [threads] [rounds] [acquisitions_per_thread] [timeout_millis]
+*/
+
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class ResourcePoolCheck {
+
+	private static final String[] POLICIES = {"fifo", "bestfit", "smallest", "backfill"};
+	private static final String[] PLACEMENTS = {"least", "two", "hash"};
+
+
+	//Returns null if the round passed, otherwise what went wrong
+	static String round(int threads, int ops, long timeout) throws InterruptedException {
+
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		int dims = 1 + rnd.nextInt(6);
+		int[] totals = new int[dims];
+		for (int d=0; d<dims; d++)
+			totals[d] = 4 + rnd.nextInt(13);
+
+		ResourcePool pool;
+		ShardedResourcePool sharded = null;
+		int shards = 1;
+		int kind = rnd.nextInt(4);
+		String setup;
+
+		if (kind < 2) {
+			pool = new StripedResourcePool(totals);
+			setup = "striped";
+		} else if (kind == 2) {
+			String policy = POLICIES[rnd.nextInt(POLICIES.length)];
+			pool = new ResourceAllocator(totals, policy);
+			setup = "global " + policy;
+		} else {
+			String placement = PLACEMENTS[rnd.nextInt(PLACEMENTS.length)];
+			boolean rebalance = rnd.nextBoolean();
+			shards = 2 + rnd.nextInt(3);
+			pool = sharded = new ShardedResourcePool(totals, shards, placement, rebalance);
+			setup = placement + "-" + shards + (rebalance ? " rebalanced" : "");
+		}
+		setup += " over " + Arrays.toString(totals) + ": ";
+
+		//No demand may be larger than the smallest node's share
+		int[] most = new int[dims];
+		for (int d=0; d<dims; d++)
+			most[d] = Math.max(1, totals[d] / shards / 2);
+
+		//What each node may hold and what is held through its grants, one node after the other
+		int[] capacity = new int[shards * dims];
+		for (int n=0; n<shards && sharded != null; n++)
+			System.arraycopy(sharded.getCapacity(n), 0, capacity, n * dims, dims);
+		AtomicIntegerArray onNode = new AtomicIntegerArray(shards * dims);
+
+		ResourcePool p = pool;
+		boolean perNode = sharded != null;
+		String s = setup;
+		AtomicIntegerArray held = new AtomicIntegerArray(dims);
+		AtomicReference<String> failure = new AtomicReference<String>();
+		Thread[] workers = new Thread[threads];
+
+		for (int t=0; t<threads; t++) {
+			workers[t] = new Thread(() -> {
+				ThreadLocalRandom r = ThreadLocalRandom.current();
+
+				for (int i=0; i<ops && failure.get() == null; i++) {
+					int[] demand = new int[dims];
+					for (int d=0; d<dims; d++)
+						if (r.nextInt(3) == 0)
+							demand[d] = 1 + r.nextInt(most[d]);
+
+					ResourcePool.Grant g = p.acquire(demand);
+					String wrong = check(demand, g.getLeft(), "acquire");
+					for (int d=0; d<dims && wrong == null; d++)
+						if (held.addAndGet(d, demand[d]) > totals[d])
+							wrong = held.get(d) + " of dimension " + d + " were held at once";
+					for (int d=0; d<dims && perNode; d++)
+						if (onNode.addAndGet(g.node * dims + d, demand[d]) > capacity[g.node * dims + d] && wrong == null)
+							wrong = "node " + g.node + " had " + onNode.get(g.node * dims + d) + " of dimension " + d + " held, "
+								+ "more than its share of " + capacity[g.node * dims + d];
+
+					if (r.nextBoolean())
+						Thread.yield();
+
+					for (int d=0; d<dims; d++)
+						held.addAndGet(d, -demand[d]);
+					for (int d=0; d<dims && perNode; d++)
+						onNode.addAndGet(g.node * dims + d, -demand[d]);
+					try {
+						if (wrong == null)
+							wrong = check(demand, p.release(g), "release");
+					} catch (IllegalStateException e) {
+						wrong = e.getMessage();
+					}
+
+					if (wrong != null)
+						failure.compareAndSet(null, s + wrong);
+				}
+			});
+			workers[t].setDaemon(true);
+		}
+
+		for (Thread w : workers)
+			w.start();
+
+		//Threads left parked behind a failure are daemons and are abandoned
+		long until = System.currentTimeMillis() + timeout;
+		for (Thread w : workers)
+			while (w.isAlive() && failure.get() == null && System.currentTimeMillis() < until)
+				w.join(10);
+
+		if (failure.get() != null)
+			return failure.get();
+		for (Thread w : workers)
+			if (w.isAlive())
+				return setup + "threads were still waiting to acquire after " + timeout + " ms";
+
+		if (!Arrays.equals(pool.getAvailable(), totals))
+			return setup + Arrays.toString(pool.getAvailable()) + " was available once everything had been released";
+		for (int n=0; n<shards && sharded != null; n++)
+			if (!Arrays.equals(sharded.getAvailable(n), sharded.getCapacity(n)))
+				return setup + "node " + n + " had " + Arrays.toString(sharded.getAvailable(n)) + " available rather than its "
+					+ "share of " + Arrays.toString(sharded.getCapacity(n)) + " once everything had been released";
+		return null;
+	}
+
+
+	//Returns null if what a call left is possible for the dimensions demand touched, otherwise what went wrong
+	private static String check(int[] demand, int[] left, String call) {
+		for (int d=0; d<demand.length; d++)
+			if (demand[d] > 0 && left[d] < 0)
+				return call + " of " + Arrays.toString(demand) + " left " + left[d] + " of dimension " + d;
+		return null;
+	}
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int ops = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		long timeout = args.length > 3 ? Long.parseLong(args[3]) : 30000;
+
+		for (int i=0; i<rounds; i++) {
+			String failure = round(threads, ops, timeout);
+			if (failure != null) {
+				System.out.println("FAIL round " + (i + 1) + ": " + failure);
+				System.exit(1);
+			}
+		}
+
+		System.out.println("OK " + rounds + " rounds of " + threads + " threads");
+	}
+}
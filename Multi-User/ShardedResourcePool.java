@@ -0,0 +1,387 @@
+/*
+	ShardedResourcePool.java - A ResourcePool whose capacity is spread over several nodes, each with its own lock, capacity
+	and queue of waiting users, as it would be across the machines of a cluster. The totals given are split as evenly as
+	possible between the nodes, and a user must be satisfied entirely by the one node it runs on.
+
+	Each acquisition is placed on a node by a placement strategy:
+
+		least - (default) the node with the lowest load, the share of its capacity held or queued for
+		two   - the less loaded of two nodes picked at random, the 'power of two choices'
+		hash  - a node chosen by hashing the acquiring thread, so the same thread always lands on the same node
+
+	Loads are read without taking any lock so placement never contends, they only need to be roughly right.
+
+	A user that does not fit on its node waits in that node's queue. A release on a node hands what it returns directly to
+	the waiting users of that node that now fit, oldest first. With rebalancing on, a node with capacity left over after
+	that also steals waiting users from the other nodes that fit on it, and a background thread does the same for idle
+	nodes every REBALANCE_MILLIS, so a user is never stuck behind a busy node while another one sits empty. Stealing only
+	ever tryLocks the other node, so two nodes stealing from each other cannot deadlock.
+
+	The grant acquire() returns records the node it was taken from, and release() hands it straight back to that node,
+	locking no other but the ones it steals waiters from. What a node has free is therefore always exactly its capacity
+	less what its own users hold, whichever thread releases and in whatever order. Grants hold, and release() returns,
+	what is left on that node.
+*/
+
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+public class ShardedResourcePool implements ResourcePool {
+
+	private static final long REBALANCE_MILLIS = 10;
+
+	private final int[] totals;
+	private final Node[] nodes;
+	private final String placement;
+	private final boolean rebalance;
+
+
+	//One node of the cluster
+	static final class Node {
+
+		final ReentrantLock lock = new ReentrantLock();
+		final ArrayDeque<Waiter> waiters = new ArrayDeque<Waiter>();
+		final int index;
+		final int[] capacity;
+		final int[] available;
+		final int[] queued;
+		volatile double load;
+
+
+		Node(int i, int[] c) {
+			this.index = i;
+			this.capacity = c;
+			this.available = c.clone();
+			this.queued = new int[c.length];
+		}
+	}
+
+
+	//A parked user, and once it is granted resources the node it got them from and what that node has left
+	static final class Waiter {
+
+		final Thread thread;
+		final int[] demand;
+		Node node;
+		int[] remaining;
+		Waiter link;
+		volatile boolean granted;
+
+
+		Waiter(Thread t, int[] d) {
+			this.thread = t;
+			this.demand = d;
+		}
+	}
+
+
+	public ShardedResourcePool(int[] totals, int shards, String placement, boolean rebalance) {
+
+		if (shards < 1)
+			throw new IllegalArgumentException("Need at least one node");
+
+		if (!placement.equals("least") && !placement.equals("two") && !placement.equals("hash"))
+			throw new IllegalArgumentException("Unknown placement " + placement + ", must be least, two or hash");
+
+		for (int t : totals)
+			if (t < 0)
+				throw new IllegalArgumentException("Resource totals may not be negative");
+
+		this.totals = totals.clone();
+		this.nodes = new Node[shards];
+		this.placement = placement;
+		this.rebalance = rebalance;
+
+		for (int n=0; n<shards; n++) {
+			int[] c = new int[totals.length];
+			for (int i=0; i<totals.length; i++)
+				c[i] = totals[i] / shards + (n < totals[i] % shards ? 1 : 0);
+			nodes[n] = new Node(n, c);
+		}
+
+		if (rebalance && shards > 1) {
+			Clock.start(r -> {
+				Thread t = new Thread(r, "rebalancer");
+				t.setDaemon(true);
+				return t;
+			}, this::rebalancer);
+		}
+	}
+
+
+	/*
+	Places the user on a node and blocks until that node, or with rebalancing any node, can meet demand. A demand that
+	does not fit on even the largest node is rejected with IllegalArgumentException.
+	*/
+	public Grant acquire(int[] demand) {
+
+		checkDemand(demand);
+		Node node = place(demand);
+		Waiter w;
+
+		node.lock.lock();
+		try {
+			if (node.waiters.isEmpty() && fits(demand, node.available)) {
+				take(node, demand);
+				return new Grant(this, demand.clone(), node.available.clone(), node.index);
+			}
+
+			w = new Waiter(Thread.currentThread(), demand.clone());
+			node.waiters.addLast(w);
+			for (int i=0; i<demand.length; i++)
+				node.queued[i] += demand[i];
+			updateLoad(node);
+		} finally {
+			node.lock.unlock();
+		}
+
+		//Interrupts are ignored, the user is admitted only by a release or the rebalancer
+		while (!w.granted)
+			Clock.park(this);
+
+		return new Grant(this, w.demand, w.remaining, w.node.index);
+	}
+
+
+	/*
+	Returns the grant to the node it was taken from, admitting the users that node now satisfies.
+	*/
+	public int[] release(Grant grant) {
+
+		grant.retire(this);
+		int[] demand = grant.demand;
+		Node node = nodes[grant.node];
+		Waiter granted = null;
+		int[] left;
+
+		node.lock.lock();
+		try {
+			for (int i=0; i<demand.length; i++)
+				if (node.available[i] + demand[i] > node.capacity[i])
+					throw new IllegalStateException("Released more than node " + node.index + " granted");
+			for (int i=0; i<demand.length; i++)
+				node.available[i] += demand[i];
+
+			granted = admit(node, node, granted);
+			if (rebalance)
+				granted = steal(node, granted);
+			updateLoad(node);
+			left = node.available.clone();
+		} finally {
+			node.lock.unlock();
+		}
+
+		wake(granted);
+		return left;
+	}
+
+
+	public int[] getTotals() {
+		return totals.clone();
+	}
+
+
+	//The sum over every node of what is available, each node read under its own lock
+	public int[] getAvailable() {
+		int[] sum = new int[totals.length];
+
+		for (Node n : nodes) {
+			n.lock.lock();
+			try {
+				for (int i=0; i<sum.length; i++)
+					sum[i] += n.available[i];
+			} finally {
+				n.lock.unlock();
+			}
+		}
+		return sum;
+	}
+
+
+	public int getShards() {
+		return nodes.length;
+	}
+
+
+	//The capacity of one node, the share of the totals it was given
+	public int[] getCapacity(int node) {
+		return nodes[node].capacity.clone();
+	}
+
+
+	//What one node has available right now
+	public int[] getAvailable(int node) {
+		Node n = nodes[node];
+		n.lock.lock();
+		try {
+			return n.available.clone();
+		} finally {
+			n.lock.unlock();
+		}
+	}
+
+
+	private Node place(int[] demand) {
+		ThreadLocalRandom r = ThreadLocalRandom.current();
+
+		if (placement.equals("hash")) {
+			int h = Long.hashCode(Thread.currentThread().getId() * 0x9E3779B97F4A7C15L);
+			for (int k=0; k<nodes.length; k++) {
+				Node n = nodes[Math.floorMod(h + k, nodes.length)];
+				if (fits(demand, n.capacity))
+					return n;
+			}
+		}
+
+		if (placement.equals("two")) {
+			Node a = nodes[r.nextInt(nodes.length)];
+			Node b = nodes[r.nextInt(nodes.length)];
+			if (!fits(demand, a.capacity))
+				a = b;
+			if (fits(demand, b.capacity) && b.load < a.load)
+				a = b;
+			if (fits(demand, a.capacity))
+				return a;
+		}
+
+		//Least loaded, starting from a random node so ties are spread out
+		Node best = null;
+		int start = r.nextInt(nodes.length);
+		for (int k=0; k<nodes.length; k++) {
+			Node n = nodes[(start + k) % nodes.length];
+			if (fits(demand, n.capacity) && (best == null || n.load < best.load))
+				best = n;
+		}
+		return best;
+	}
+
+
+	//Periodically lets every node with anything free steal waiters from the others
+	private void rebalancer() {
+		while (true) {
+			try {
+				Clock.sleep(REBALANCE_MILLIS);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			for (Node n : nodes) {
+				Waiter granted = null;
+
+				n.lock.lock();
+				try {
+					granted = steal(n, null);
+					updateLoad(n);
+				} finally {
+					n.lock.unlock();
+				}
+				wake(granted);
+			}
+		}
+	}
+
+
+	//Node 'to' must be locked for the following
+
+	//Grants resources on 'to' to every waiter of 'from' that fits, oldest first. 'from' must be locked too.
+	private Waiter admit(Node from, Node to, Waiter granted) {
+		for (Iterator<Waiter> it = from.waiters.iterator(); it.hasNext() && anyFree(to); ) {
+			Waiter w = it.next();
+			if (!fits(w.demand, to.available))
+				continue;
+
+			it.remove();
+			for (int i=0; i<w.demand.length; i++)
+				from.queued[i] -= w.demand[i];
+			take(to, w.demand);
+			w.node = to;
+			w.remaining = to.available.clone();
+			w.link = granted;
+			granted = w;
+		}
+		return granted;
+	}
+
+
+	//Takes waiters from the other nodes that fit in what 'to' has left, skipping any node that is busy
+	private Waiter steal(Node to, Waiter granted) {
+		int start = ThreadLocalRandom.current().nextInt(nodes.length);
+
+		for (int k=0; k<nodes.length && anyFree(to); k++) {
+			Node from = nodes[(start + k) % nodes.length];
+			if (from == to || from.waiters.isEmpty() || !from.lock.tryLock())
+				continue;
+			try {
+				granted = admit(from, to, granted);
+				updateLoad(from);
+			} finally {
+				from.lock.unlock();
+			}
+		}
+		return granted;
+	}
+
+
+	private void take(Node n, int[] demand) {
+		for (int i=0; i<demand.length; i++)
+			n.available[i] -= demand[i];
+		updateLoad(n);
+	}
+
+
+	//Share of the node's capacity held or queued for, averaged over the resources
+	private void updateLoad(Node n) {
+		double load = 0;
+		for (int i=0; i<n.capacity.length; i++)
+			if (n.capacity[i] > 0)
+				load += (double) (n.capacity[i] - n.available[i] + n.queued[i]) / n.capacity[i];
+		n.load = load / n.capacity.length;
+	}
+
+
+	private static boolean anyFree(Node n) {
+		for (int a : n.available)
+			if (a > 0)
+				return true;
+		return false;
+	}
+
+
+	private static boolean fits(int[] demand, int[] free) {
+		for (int i=0; i<demand.length; i++)
+			if (demand[i] > free[i])
+				return false;
+		return true;
+	}
+
+
+	private static void wake(Waiter granted) {
+		for (Waiter w = granted; w != null; ) {
+			Waiter next = w.link;
+			Thread t = w.thread;
+			w.granted = true;
+			Clock.unpark(t);
+			w = next;
+		}
+	}
+
+
+	private void checkDemand(int[] demand) {
+		if (demand.length != totals.length)
+			throw new IllegalArgumentException("Demand must name every resource");
+
+		for (int i=0; i<demand.length; i++)
+			if (demand[i] < 0)
+				throw new IllegalArgumentException("Demand can never be met: " + demand[i] + " of resource " + i);
+
+		for (Node n : nodes)
+			if (fits(demand, n.capacity))
+				return;
+		throw new IllegalArgumentException("Demand can never be met: " + Arrays.toString(demand) + " is larger than every node");
+	}
+}
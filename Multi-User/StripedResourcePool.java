@@ -0,0 +1,199 @@
+/*
+	StripedResourcePool.java - A ResourcePool for any number of resource dimensions (CPU, memory, GPU slots, file handles,
+	licenses...) in which every dimension has its own lock, counter and waiters. There is no lock shared by all users.
+
+	Acquiring a demand vector locks only the dimensions it needs a non-zero amount of, always in increasing dimension order,
+	so two acquisitions can never deadlock. With every one of those locks held it either takes all of its demand or, if any
+	dimension is short, takes nothing. Users whose demands touch disjoint dimensions therefore never contend at all.
+
+	A user that cannot be satisfied registers as a waiter on the first dimension that was short, while still holding that
+	dimension's lock, then parks. A release on a dimension wakes only those of its waiters whose demand on that dimension now
+	fits, and each of them retries the whole vector. Because registration and the release both happen under the dimension's
+	lock, a waiter can never miss the release it is waiting for. A waiter that is short again on retry registers on whichever
+	dimension is short at that moment, which some holder must eventually release.
+*/
+
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+public class StripedResourcePool implements ResourcePool {
+
+	private final int[] totals;
+	private final Stripe[] stripes;
+
+
+	//One resource dimension
+	static final class Stripe {
+
+		final ReentrantLock lock = new ReentrantLock();
+		final ArrayDeque<Waiter> waiters = new ArrayDeque<Waiter>();
+		volatile int available;
+
+
+		Stripe(int total) {
+			this.available = total;
+		}
+	}
+
+
+	//A parked user and the amount it needs of the dimension it is waiting on
+	static final class Waiter {
+
+		final Thread thread;
+		final int need;
+		volatile boolean woken;
+
+
+		Waiter(Thread t, int n) {
+			this.thread = t;
+			this.need = n;
+		}
+	}
+
+
+	public StripedResourcePool(int[] totals) {
+
+		for (int t : totals)
+			if (t < 0)
+				throw new IllegalArgumentException("Resource totals may not be negative");
+
+		this.totals = totals.clone();
+		this.stripes = new Stripe[totals.length];
+
+		for (int i=0; i<totals.length; i++)
+			stripes[i] = new Stripe(totals[i]);
+	}
+
+
+	/*
+	Blocks until every entry of demand can be taken at once, then takes them all. The grant holds what is left of each
+	resource, exact for the dimensions demand touched. A demand larger than a total is rejected with
+	IllegalArgumentException.
+	*/
+	public Grant acquire(int[] demand) {
+
+		int[] dims = touched(demand);
+
+		while (true) {
+			Waiter w = null;
+			int[] left = null;
+			int locked = 0;
+
+			try {
+				for (; locked<dims.length; locked++)
+					stripes[dims[locked]].lock.lock();
+
+				int shortAt = -1;
+				for (int k=0; k<dims.length && shortAt == -1; k++)
+					if (stripes[dims[k]].available < demand[dims[k]])
+						shortAt = dims[k];
+
+				if (shortAt == -1) {
+					for (int d : dims)
+						stripes[d].available -= demand[d];
+					left = remaining();
+				} else {
+					w = new Waiter(Thread.currentThread(), demand[shortAt]);
+					stripes[shortAt].waiters.addLast(w);
+				}
+			} finally {
+				for (int k=locked-1; k>=0; k--)
+					stripes[dims[k]].lock.unlock();
+			}
+
+			if (left != null)
+				return new Grant(this, demand.clone(), left, -1);
+
+			//Interrupts are ignored, only a release on the short dimension wakes the user to retry
+			while (!w.woken)
+				Clock.park(this);
+		}
+	}
+
+
+	/*
+	Returns the grant one dimension at a time and wakes the waiters of each dimension that it can now satisfy.
+	*/
+	public int[] release(Grant grant) {
+
+		grant.retire(this);
+		int[] demand = grant.demand;
+		int[] dims = touched(demand);
+		Waiter[] wake = new Waiter[0];
+		int n = 0;
+
+		for (int d : dims) {
+			Stripe s = stripes[d];
+
+			s.lock.lock();
+			try {
+				if (s.available + demand[d] > totals[d])
+					throw new IllegalStateException("Released more than was acquired");
+
+				int free = s.available += demand[d];
+				for (Iterator<Waiter> it = s.waiters.iterator(); it.hasNext(); ) {
+					Waiter w = it.next();
+					if (w.need > free)
+						continue;
+					it.remove();
+					if (n == wake.length)
+						wake = Arrays.copyOf(wake, Math.max(4, n * 2));
+					wake[n++] = w;
+				}
+			} finally {
+				s.lock.unlock();
+			}
+		}
+
+		for (int i=0; i<n; i++) {
+			Thread t = wake[i].thread;
+			wake[i].woken = true;
+			Clock.unpark(t);
+		}
+		return remaining();
+	}
+
+
+	public int[] getTotals() {
+		return totals.clone();
+	}
+
+
+	public int[] getAvailable() {
+		return remaining();
+	}
+
+
+	private int[] remaining() {
+		int[] left = new int[stripes.length];
+		for (int i=0; i<stripes.length; i++)
+			left[i] = stripes[i].available;
+		return left;
+	}
+
+
+	//The dimensions demand needs a non-zero amount of, in increasing order
+	private int[] touched(int[] demand) {
+		if (demand.length != totals.length)
+			throw new IllegalArgumentException("Demand must name every resource");
+
+		int n = 0;
+		for (int i=0; i<demand.length; i++) {
+			if (demand[i] < 0 || demand[i] > totals[i])
+				throw new IllegalArgumentException("Demand can never be met: " + demand[i] + " of resource " + i + " with a total of " + totals[i]);
+			if (demand[i] > 0)
+				n++;
+		}
+
+		int[] dims = new int[n];
+		n = 0;
+		for (int i=0; i<demand.length; i++)
+			if (demand[i] > 0)
+				dims[n++] = i;
+		return dims;
+	}
+}
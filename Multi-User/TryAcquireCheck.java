@@ -0,0 +1,149 @@
+/*
+	TryAcquireCheck.java - Stress checks ResourceAllocator.tryAcquire() giving up on timeouts and interrupts under every
+	policy.
+
+	Every round a number of threads repeatedly try to acquire a random demand on a small allocator with timeouts of at most
+	a couple of milliseconds, so grants often race the give up. Every other round another thread also keeps interrupting
+	them at random. Whatever each call did is counted, and the following must hold:
+
+		- A call that returns resources holds them, and no resource is ever held beyond its total.
+		- A call that returns null only does so once its timeout has passed, and the allocator counts every such time out.
+		- A call that returns resources has taken the permit of the grant that woke it, so a park right after it sleeps its
+		  full time rather than returning at once. This is checked after every call that returned once its timeout had
+		  passed, where the grant raced the give up, and after one in eight of the rest, where it may have landed before
+		  the first park. An interrupt leaves a permit of its own, so it is only checked in the rounds without them.
+		- Every thread gets through all of its calls, and once they have all finished nobody is queued and all of every
+		  resource is available again.
+
+	OK is printed if every round passes, otherwise the first failure is printed and the exit status is 1.
+
+	Invoke as: java TryAcquireCheck [threads] [rounds] [calls_per_thread] [timeout_millis]
+*/
+
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class TryAcquireCheck {
+
+	private static final String[] POLICIES = {"fifo", "bestfit", "smallest", "backfill"};
+
+	//How long the park checking for a permit left behind sleeps, in nanoseconds
+	private static final long PROBE = 2000000L;
+
+
+	//Returns null if the round passed, otherwise what went wrong
+	static String round(String policy, boolean interrupts, int threads, int calls, long timeout)
+		throws InterruptedException {
+
+		int[] totals = {4, 4};
+		ResourceAllocator pool = new ResourceAllocator(totals, policy);
+		String setup = policy + (interrupts ? " with interrupts: " : ": ");
+
+		AtomicIntegerArray held = new AtomicIntegerArray(totals.length);
+		AtomicLong timedOut = new AtomicLong();
+		AtomicReference<String> failure = new AtomicReference<String>();
+		Thread[] workers = new Thread[threads];
+
+		for (int t=0; t<threads; t++) {
+			workers[t] = new Thread(() -> {
+				ThreadLocalRandom r = ThreadLocalRandom.current();
+
+				for (int i=0; i<calls && failure.get() == null; i++) {
+					int[] demand = {r.nextInt(totals[0] + 1), r.nextInt(totals[1] + 1)};
+					long wait = r.nextLong(2000000L);
+					long start = System.nanoTime();
+					ResourcePool.Grant grant;
+
+					try {
+						grant = pool.tryAcquire(demand, r.nextInt(3), wait, TimeUnit.NANOSECONDS);
+					} catch (InterruptedException e) {
+						continue;
+					}
+
+					boolean late = System.nanoTime() - start >= wait;
+					if (grant == null) {
+						timedOut.incrementAndGet();
+						if (!late)
+							failure.compareAndSet(null, setup + "tryAcquire gave up before its timeout");
+						continue;
+					}
+
+					for (int d=0; d<totals.length; d++)
+						if (held.addAndGet(d, demand[d]) > totals[d])
+							failure.compareAndSet(null, setup + held.get(d) + " of resource " + d + " were held at once");
+
+					if ((late || r.nextInt(8) == 0) && !interrupts) {
+						long parked = System.nanoTime();
+						LockSupport.parkNanos(PROBE);
+						if (System.nanoTime() - parked < PROBE / 2)
+							failure.compareAndSet(null, setup + "tryAcquire of " + Arrays.toString(demand) + " granted "
+								+ (late ? "as it gave up" : "in time") + " left a permit behind");
+					}
+
+					for (int d=0; d<totals.length; d++)
+						held.addAndGet(d, -demand[d]);
+					pool.release(grant);
+				}
+			});
+			workers[t].setDaemon(true);
+		}
+
+		for (Thread w : workers)
+			w.start();
+
+		//Interrupts whichever worker it picks every so often until they have all finished
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		long until = System.currentTimeMillis() + timeout;
+		while (failure.get() == null && System.currentTimeMillis() < until) {
+			boolean alive = false;
+			for (Thread w : workers)
+				alive |= w.isAlive();
+			if (!alive)
+				break;
+
+			if (interrupts)
+				workers[rnd.nextInt(threads)].interrupt();
+			LockSupport.parkNanos(rnd.nextLong(500000L));
+		}
+
+		if (failure.get() != null)
+			return failure.get();
+		for (Thread w : workers)
+			if (w.isAlive())
+				return setup + "threads were still waiting to acquire after " + timeout + " ms";
+
+		if (pool.getTimeouts() != timedOut.get())
+			return setup + "the allocator counted " + pool.getTimeouts() + " time outs rather than " + timedOut.get();
+		if (pool.getQueueLength() != 0)
+			return setup + pool.getQueueLength() + " users were left queued";
+		if (!Arrays.equals(pool.getAvailable(), totals))
+			return setup + Arrays.toString(pool.getAvailable()) + " was available once everything had been released";
+		return null;
+	}
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int calls = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		long timeout = args.length > 3 ? Long.parseLong(args[3]) : 30000;
+
+		for (int i=0; i<rounds; i++) {
+			String failure = round(POLICIES[i / 2 % POLICIES.length], i % 2 == 1, threads, calls, timeout);
+			if (failure != null) {
+				System.out.println("FAIL round " + (i + 1) + ": " + failure);
+				System.exit(1);
+			}
+		}
+
+		System.out.println("OK " + rounds + " rounds of " + threads + " threads over every policy");
+	}
+}
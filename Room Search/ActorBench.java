@@ -0,0 +1,176 @@
+/*
+	ActorBench.java - Measures how many students RoomSearch can run at once on platform threads and on virtual threads.
+
+	Every student is an actor that sleeps until it arrives, enters a FairRoom, stays a while and leaves, so it spends
+	nearly all its life sleeping or parked in Condition.await() while the dean is inside, as the puzzles' actors do. The
+	arrivals are spread over the first two seconds and each student stays between 100 and 500 milliseconds. A dean on a
+	platform thread of its own visits every 50 milliseconds and breaks up the party once a quarter of the students are in.
+
+	For each number of students and kind of thread a separate JVM is run, so that each one's peak resident set size is its
+	own, and the following are printed:
+
+		startup ms  - the time taken to create and start every student
+		run ms      - the time from the first start until the last student has left
+		students/s  - students that entered and left per second of the run
+		peak MB     - the JVM's peak resident set size, VmHWM in /proc/self/status
+
+	A run that fails, typically when the OS runs out of threads, or takes longer than the timeout is reported as failed.
+
+	Invoke as: java ActorBench [max_students] [timeout_seconds]
+	or, for a single run: java ActorBench -run <students> platform|virtual
+*/
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+
+public class ActorBench {
+
+	private static final int[] STUDENTS = {1000, 10000, 100000, 1000000};
+
+
+	static final class Student extends Thread {
+
+		private final Room room;
+		private final long arrival;
+		private final long stay;
+
+
+		Student(Room r, long a, long s) {
+			this.room = r;
+			this.arrival = a;
+			this.stay = s;
+		}
+
+
+		public void run() {
+			try {
+				Clock.sleep(arrival);
+				room.enter();
+				Clock.sleep(stay);
+				room.exit();
+			} catch (InterruptedException e) {}
+		}
+	}
+
+
+	//Runs n students in this JVM and prints the startup and run times in ms, students per second and peak RSS in MB
+	static void run(int n) throws InterruptedException {
+
+		Room room = new FairRoom(Math.max(1, n / 4), false);
+		SplittableRandom rnd = new SplittableRandom(42);
+		Student[] students = new Student[n];
+
+		long start = System.nanoTime();
+		for (int i=0; i<n; i++) {
+			students[i] = new Student(room, rnd.nextLong(2000), 100 + rnd.nextLong(400));
+			Actors.start(students[i]);
+		}
+		long started = System.nanoTime();
+
+		Thread dean = new Thread(() -> {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					return;
+				}
+				room.visit();
+			}
+		});
+		dean.setDaemon(true);
+		dean.start();
+
+		for (Student s : students)
+			Actors.join(s);
+		long done = System.nanoTime();
+		dean.interrupt();
+
+		System.out.printf("%.0f %.0f %.0f %.0f%n", (started - start) / 1e6, (done - start) / 1e6, n / ((done - start) / 1e9),
+			peakRss());
+	}
+
+
+	//VmHWM of this process in MB, or -1 where there is no /proc
+	static double peakRss() {
+		try {
+			for (String line : Files.readAllLines(Paths.get("/proc/self/status")))
+				if (line.startsWith("VmHWM:"))
+					return Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024.0;
+		} catch (IOException e) {}
+		return -1;
+	}
+
+
+	//Runs n students in a new JVM and returns its line of results, or why it failed
+	static String spawn(int n, String kind, long timeout) throws IOException, InterruptedException {
+
+		String java = ProcessHandle.current().info().command().orElse("java");
+		Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "ActorBench", "-run",
+			String.valueOf(n), kind).redirectErrorStream(true).start();
+
+		if (!p.waitFor(timeout, TimeUnit.SECONDS)) {
+			p.destroyForcibly();
+			return "failed: timed out";
+		}
+
+		String last = null;
+		String error = null;
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+			for (String line; (line = in.readLine()) != null; ) {
+				last = line;
+				if (error == null && (line.contains("Error") || line.contains("Exception")))
+					error = line;
+			}
+		}
+
+		if (p.exitValue() != 0 || error != null)
+			return "failed: " + (error != null ? error : last);
+		return last;
+	}
+
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+
+		if (args.length == 3 && args[0].equals("-run")) {
+			if (args[2].equals("virtual"))
+				Actors.useVirtualThreads();
+			run(Integer.parseInt(args[1]));
+			return;
+		}
+
+		int max = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		long timeout = args.length > 1 ? Long.parseLong(args[1]) : 120;
+
+		System.out.println("java=" + System.getProperty("java.version") + " cores=" + Runtime.getRuntime().availableProcessors()
+			+ " max heap=" + Runtime.getRuntime().maxMemory() / (1 << 20) + "MB");
+		System.out.printf("%9s %9s %11s %9s %12s %9s%n", "students", "threads", "startup ms", "run ms", "students/s", "peak MB");
+
+		for (int n : STUDENTS) {
+			if (n > max)
+				break;
+
+			for (String kind : new String[] {"platform", "virtual"}) {
+				if (kind.equals("virtual") && !Actors.hasVirtualThreads()) {
+					System.out.printf("%9d %9s %s%n", n, kind, "unavailable, needs Java 21 or later");
+					continue;
+				}
+
+				String r = spawn(n, kind, timeout);
+				if (r == null || r.startsWith("failed")) {
+					System.out.printf("%9d %9s %s%n", n, kind, r);
+					continue;
+				}
+
+				String[] f = r.trim().split(" ");
+				System.out.printf("%9d %9s %11s %9s %12s %9s%n", n, kind, f[0], f[1], f[2], f[3]);
+			}
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+	DeanScheduler.java - The 'Room Search' problem over many rooms sharing a single dean.
+
+	Every room is a StripedRoom with state of its own and there is no lock over all of them, so students in different
+	rooms never share a lock or a counter. When a student finds its room qualifies for a visit it flags the room, with a
+	compare-and-set on that room alone, and wakes the dean only if the dean is asleep. Only the first student to see the
+	dean asleep unparks it, so however many rooms become ready at once the dean is woken once.
+
+	The dean keeps its own priority queue of the rooms most in need of a visit, which no student ever touches. Before each
+	visit it scans the rooms for new flags and queues each flagged room keyed on its occupancy at the time: the fullest
+	party is broken up first, and empty rooms, waiting to be searched, come after every party in the order they emptied.
+	The dean then visits the room at the head of the queue, which it may find no longer qualifies, counting as a missed
+	visit. The scan reads one volatile per room and is the price of not sharing a queue with the students.
+
+	The time the dean spends inside rooms, out of the time it has been running, is its utilization.
+*/
+
+
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class DeanScheduler {
+
+	private final StripedRoom[] rooms;
+	private final Dean dean;
+	private final AtomicBoolean asleep = new AtomicBoolean();
+	private volatile boolean end;
+
+	//Written only by the dean
+	private volatile long started;
+	private volatile long stopped;
+	private volatile long busy;
+	private volatile long visits;
+	private volatile long scans;
+
+
+	//A flagged room and the occupancy it was queued with
+	private static final class Need implements Comparable<Need> {
+
+		final int room;
+		final long occupancy;
+		final long hint;
+
+
+		Need(int r, long o, long h) {
+			this.room = r;
+			this.occupancy = o;
+			this.hint = h;
+		}
+
+
+		public int compareTo(Need n) {
+			if (occupancy != n.occupancy)
+				return Long.compare(n.occupancy, occupancy);
+			return Long.compare(hint, n.hint);
+		}
+	}
+
+
+	public DeanScheduler(int rooms, int threshold) {
+
+		if (rooms < 1)
+			throw new IllegalArgumentException("There must be at least one room");
+
+		this.rooms = new StripedRoom[rooms];
+		for (int i=0; i<rooms; i++)
+			this.rooms[i] = new StripedRoom(threshold, false, this::ready);
+
+		this.dean = new Dean();
+	}
+
+
+	public Room getRoom(int i) {
+		return rooms[i];
+	}
+
+
+	public int getRooms() {
+		return rooms.length;
+	}
+
+
+	public void start() {
+		started = System.nanoTime();
+		dean.start();
+	}
+
+
+	//Stops the dean once it has left the room it is in, if any
+	public void stop() throws InterruptedException {
+		end = true;
+		LockSupport.unpark(dean);
+		dean.join();
+	}
+
+
+	//Run by a student that flagged its room
+	private void ready() {
+		if (asleep.get() && asleep.compareAndSet(true, false))
+			LockSupport.unpark(dean);
+	}
+
+
+	class Dean extends Thread {
+
+		private final PriorityQueue<Need> needs = new PriorityQueue<Need>();
+		private final boolean[] queued = new boolean[rooms.length];
+
+
+		public void run() {
+
+			while (!end) {
+				scan();
+
+				if (needs.isEmpty()) {
+					//Scan again after saying so, a room flagged in between either sees it or is found
+					asleep.set(true);
+					scan();
+					if (needs.isEmpty())
+						LockSupport.park(this);
+					asleep.set(false);
+					continue;
+				}
+
+				Need n = needs.poll();
+				queued[n.room] = false;
+
+				long start = System.nanoTime();
+				if (rooms[n.room].visit())
+					visits++;
+				busy += System.nanoTime() - start;
+			}
+
+			stopped = System.nanoTime();
+		}
+
+
+		//Queues the rooms flagged since the last scan
+		private void scan() {
+			scans++;
+			for (int i=0; i<rooms.length; i++) {
+				long hint;
+				if (!queued[i] && (hint = rooms[i].getHint()) != 0) {
+					queued[i] = true;
+					needs.add(new Need(i, rooms[i].getOccupancy(), hint));
+				}
+			}
+		}
+	}
+
+
+	//Visits the dean went into a room for
+	public long getVisits() {
+		return visits;
+	}
+
+
+	//Times the dean scanned the rooms for flags
+	public long getScans() {
+		return scans;
+	}
+
+
+	//Share of its running time the dean has spent visiting rooms
+	public double getUtilization() {
+		long until = stopped != 0 ? stopped : System.nanoTime();
+		return until == started ? 0 : (double) busy / (until - started);
+	}
+
+
+	//Mean and longest time a room waited for the dean once flagged, in milliseconds, over every room
+	public double getMeanLatency() {
+		long n = 0;
+		double sum = 0;
+		for (StripedRoom r : rooms) {
+			n += r.getReactions();
+			sum += r.getMeanLatency() * r.getReactions();
+		}
+		return n == 0 ? 0 : sum / n;
+	}
+
+
+	public double getMaxLatency() {
+		double max = 0;
+		for (StripedRoom r : rooms)
+			max = Math.max(max, r.getMaxLatency());
+		return max;
+	}
+
+
+	public long getMissed() {
+		long n = 0;
+		for (StripedRoom r : rooms)
+			n += r.getMissed();
+		return n;
+	}
+}
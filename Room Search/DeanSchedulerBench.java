@@ -0,0 +1,105 @@
+/*
+	DeanSchedulerBench.java - Measures how a single dean copes as the number of rooms grows.
+
+	A fixed number of student threads keep entering a random room, staying a short while and leaving, for a fixed time,
+	while one DeanScheduler dean visits whichever rooms need it. For each number of rooms the following are printed:
+
+		entries/s   - rooms entered per second by all the students together
+		wait us     - the mean time a student waited to enter, kept out while the dean was inside
+		dean %      - the dean's utilization, the share of the run it spent inside rooms
+		visits/s    - the visits the dean made per second
+		latency ms  - the mean time a room waited for the dean once a student flagged it
+		missed      - visits the room no longer qualified for by the time the dean got there
+
+	Invoke as: java DeanSchedulerBench [students] [threshold] [stay_micros] [millis_per_run]
+*/
+
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class DeanSchedulerBench {
+
+	private static final int[] ROOMS = {1, 4, 16, 64, 256, 512};
+
+
+	//Returns entries per second and the mean wait to enter in microseconds
+	static double[] run(DeanScheduler s, int students, long stay, long millis) throws InterruptedException {
+
+		AtomicBoolean stop = new AtomicBoolean(false);
+		long[] counts = new long[students];
+		long[] waits = new long[students];
+		Thread[] threads = new Thread[students];
+
+		for (int i=0; i<students; i++) {
+			final int id = i;
+			threads[i] = new Thread(() -> {
+				ThreadLocalRandom rnd = ThreadLocalRandom.current();
+				long ops = 0;
+				long wait = 0;
+				while (!stop.get()) {
+					Room room = s.getRoom(rnd.nextInt(s.getRooms()));
+
+					long start = System.nanoTime();
+					room.enter();
+					wait += System.nanoTime() - start;
+
+					LockSupport.parkNanos(stay);
+					room.exit();
+					ops++;
+				}
+				counts[id] = ops;
+				waits[id] = wait;
+			});
+		}
+
+		long start = System.nanoTime();
+		s.start();
+		for (Thread t : threads)
+			t.start();
+
+		Thread.sleep(millis);
+		stop.set(true);
+
+		for (Thread t : threads)
+			t.join();
+		s.stop();
+
+		double secs = (System.nanoTime() - start) / 1e9;
+		long total = 0;
+		long wait = 0;
+		for (int i=0; i<students; i++) {
+			total += counts[i];
+			wait += waits[i];
+		}
+
+		return new double[] {total / secs, total == 0 ? 0 : wait / 1e3 / total, s.getVisits() / secs};
+	}
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int students = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int threshold = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		long stay = (args.length > 2 ? Long.parseLong(args[2]) : 100) * 1000;
+		long millis = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+
+		System.out.println("students=" + students + " threshold=" + threshold + " stay=" + stay / 1000 + "us cores="
+			+ Runtime.getRuntime().availableProcessors());
+		System.out.printf("%6s %12s %10s %8s %10s %11s %8s%n", "rooms", "entries/s", "wait us", "dean %", "visits/s",
+			"latency ms", "missed");
+
+		for (int rooms : ROOMS) {
+			//A short warm up before measuring
+			run(new DeanScheduler(rooms, threshold), students, stay, millis / 5);
+
+			DeanScheduler s = new DeanScheduler(rooms, threshold);
+			double[] r = run(s, students, stay, millis);
+
+			System.out.printf("%6d %12.0f %10.1f %8.1f %10.0f %11.3f %8d%n", rooms, r[0], r[1], 100 * s.getUtilization(), r[2],
+				s.getMeanLatency(), s.getMissed());
+		}
+	}
+}
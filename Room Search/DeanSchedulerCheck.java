@@ -0,0 +1,143 @@
+/*
+	DeanSchedulerCheck.java - Checks that a DeanScheduler dean is told of every party, however its students got in.
+
+	A room is only flagged by the student that finds it qualifies for a visit, so a party must be flagged whichever way
+	its students entered. With a threshold of 1 in a single room:
+
+		1. Two students enter and form a party, and the dean goes in to break it up.
+		2. While the dean is inside, two more students arrive and are made to wait for it through the room's lock.
+		3. The first two leave, the dean leaves, and the two waiting students are let in together, forming a party.
+		4. The dean must go in again while they are still inside.
+
+	Students let in through the lock used never to flag the room, and the dean would sleep through the second party.
+	Every round is repeated with fresh threads. OK is printed if all rounds pass, otherwise the first failure is printed
+	and the exit status is 1.
+
+	Invoke as: java DeanSchedulerCheck [rounds] [timeout_millis]
+*/
+
+
+import java.util.concurrent.CountDownLatch;
+
+
+public class DeanSchedulerCheck {
+
+	//A student that enters, waits to be told to leave and leaves
+	static final class Student extends Thread {
+
+		private final Room room;
+		private final CountDownLatch leave = new CountDownLatch(1);
+		private final CountDownLatch entered = new CountDownLatch(1);
+
+
+		Student(Room r, String name) {
+			super(name);
+			this.room = r;
+			setDaemon(true);
+		}
+
+
+		public void run() {
+			room.enter();
+			entered.countDown();
+			try {
+				leave.await();
+			} catch (InterruptedException e) {
+				return;
+			}
+			room.exit();
+		}
+	}
+
+
+	//Waits until the dean has gone into the room 'reactions' times in all
+	static boolean awaitReactions(StripedRoom room, long reactions, long timeout) throws InterruptedException {
+		long until = System.currentTimeMillis() + timeout;
+		while (room.getReactions() < reactions) {
+			if (System.currentTimeMillis() > until)
+				return false;
+			Thread.sleep(1);
+		}
+		return true;
+	}
+
+
+	//Waits until 'locks' student lock acquisitions have been made in the room
+	static boolean awaitStudentLocks(StripedRoom room, long locks, long timeout) throws InterruptedException {
+		long until = System.currentTimeMillis() + timeout;
+		while (room.getStudentLocks() < locks) {
+			if (System.currentTimeMillis() > until)
+				return false;
+			Thread.sleep(1);
+		}
+		return true;
+	}
+
+
+	//Returns null if the round passed, otherwise what went wrong
+	static String round(long timeout) throws InterruptedException {
+
+		DeanScheduler s = new DeanScheduler(1, 1);
+		StripedRoom room = (StripedRoom) s.getRoom(0);
+		s.start();
+
+		try {
+			Student a = new Student(room, "a");
+			Student b = new Student(room, "b");
+			a.start();
+			b.start();
+			a.entered.await();
+			b.entered.await();
+
+			if (!awaitReactions(room, 1, timeout))
+				return "the dean never went in to break up the first party";
+
+			//Both find the dean inside, back out and wait for it on the lock
+			Student c = new Student(room, "c");
+			Student d = new Student(room, "d");
+			c.start();
+			d.start();
+			if (!awaitStudentLocks(room, 2, timeout))
+				return "the late students never reached the room's lock";
+
+			a.leave.countDown();
+			b.leave.countDown();
+			c.entered.await();
+			d.entered.await();
+
+			if (!awaitReactions(room, 2, timeout))
+				return "the dean was never told of the party formed by students let in through the lock";
+
+			c.leave.countDown();
+			d.leave.countDown();
+			for (Student t : new Student[] {a, b, c, d})
+				t.join();
+
+			if (room.getOccupancy() != 0)
+				return "the room was left with " + room.getOccupancy() + " students inside";
+		} finally {
+			s.stop();
+		}
+
+		if (s.getVisits() < 2)
+			return "the dean made " + s.getVisits() + " visits rather than 2";
+		return null;
+	}
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		long timeout = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+
+		for (int i=0; i<rounds; i++) {
+			String failure = round(timeout);
+			if (failure != null) {
+				System.out.println("FAIL round " + (i + 1) + ": " + failure);
+				System.exit(1);
+			}
+		}
+
+		System.out.println("OK " + rounds + " rounds");
+	}
+}
@@ -0,0 +1,218 @@
+/*
+	FairRoom.java - The Room RoomSearch2 has always used: a count of the students inside guarded by one fair lock that every
+	student takes on entry and exit.
+
+	The student whose entry takes the room over the threshold, or whose exit leaves it empty, notes the time and wakes a
+	dean waiting in awaitQualifies(). A student undoing that before the dean gets there counts the visit as missed.
+*/
+
+
+import java.util.concurrent.locks.ReentrantLock;
+
+
+public class FairRoom implements Room {
+
+	private final ReentrantLock roomLock = new ReentrantLock(true);
+	private final Clock.Condition roomCond = Clock.newCondition(roomLock);
+	private final Clock.Condition dCond = Clock.newCondition(roomLock);
+	private final Clock.Condition deanWake = Clock.newCondition(roomLock);
+	private final int threshold;
+	private final boolean verbose;
+
+	//roomLock must be held for all of the following
+	private boolean dean_in;
+	private int size;
+	private boolean stopped;
+	private long qualifiedAt;
+	private long reactions;
+	private long missed;
+	private long latencySum;
+	private long latencyMax;
+	private long deanLocks;
+	private long studentLocks;
+
+
+	//The dean's entering and leaving are logged to the EventLog if verbose
+	public FairRoom(int threshold, boolean verbose) {
+		this.threshold = threshold;
+		this.verbose = verbose;
+	}
+
+
+	public void enter() {
+		roomLock.lock();
+		try {
+			studentLocks++;
+
+			while (dean_in)
+				roomCond.awaitUninterruptibly();
+
+			size++;
+			changed();
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public void exit() {
+		roomLock.lock();
+		try {
+			studentLocks++;
+			size--;
+			changed();
+
+			if (size == 0)
+				dCond.signal();
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public boolean visit() {
+		roomLock.lock();
+		try {
+			deanLocks++;
+
+			if (!qualifies())
+				return false;
+
+			react();
+			if (verbose)
+				EventLog.log(DEAN_ENTERING, 0);
+			dean_in = true;
+
+			while (size != 0)
+				dCond.awaitUninterruptibly();
+
+			dean_in = false;
+			if (verbose)
+				EventLog.log(DEAN_LEAVING, 0);
+			roomCond.signalAll();
+			return true;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public boolean awaitQualifies() {
+		roomLock.lock();
+		try {
+			deanLocks++;
+
+			while (qualifiedAt == 0 && !stopped)
+				deanWake.awaitUninterruptibly();
+
+			return !stopped;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public void stop() {
+		roomLock.lock();
+		try {
+			stopped = true;
+			deanWake.signal();
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public long getReactions() {
+		roomLock.lock();
+		try {
+			return reactions;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public double getMeanLatency() {
+		roomLock.lock();
+		try {
+			return reactions == 0 ? 0 : latencySum / 1e6 / reactions;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public double getMaxLatency() {
+		roomLock.lock();
+		try {
+			return latencyMax / 1e6;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public long getMissed() {
+		roomLock.lock();
+		try {
+			return missed;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public long getDeanLocks() {
+		roomLock.lock();
+		try {
+			return deanLocks;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public long getStudentLocks() {
+		roomLock.lock();
+		try {
+			return studentLocks;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	//roomLock must be held for the following
+
+	private boolean qualifies() {
+		return size == 0 || size > threshold;
+	}
+
+
+	//Notes when the room starts or stops qualifying for a visit while the dean is out and wakes the dean when it starts
+	private void changed() {
+		if (dean_in)
+			return;
+
+		if (qualifies() && qualifiedAt == 0) {
+			qualifiedAt = Clock.nanoTime();
+			deanWake.signal();
+		} else if (!qualifies() && qualifiedAt != 0) {
+			qualifiedAt = 0;
+			missed++;
+		}
+	}
+
+
+	private void react() {
+		if (qualifiedAt == 0)
+			return;
+
+		long latency = Clock.nanoTime() - qualifiedAt;
+		latencySum += latency;
+		latencyMax = Math.max(latencyMax, latency);
+		reactions++;
+		qualifiedAt = 0;
+	}
+}
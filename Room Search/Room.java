@@ -0,0 +1,59 @@
+/*
+	Room.java - The room of the 'Room Search' problem, as used by the students and the dean.
+
+	The dean may only enter the room when it is empty, to search it, or when more than 'threshold' students are inside, to
+	break up the party. While the dean is inside no student may enter, and the dean stays until every student has left.
+
+	Besides counting who is inside, a room records how quickly the dean reacts once it qualifies for a visit, visits it
+	stopped qualifying for before the dean got there, and how many times the dean and the students took its lock.
+*/
+
+
+public interface Room {
+
+	//Logged by a verbose room as the dean enters and leaves, from under the room's lock
+	EventLog.Format DEAN_ENTERING = (out, a, b, ref) -> out.append("Dean entering room");
+	EventLog.Format DEAN_LEAVING = (out, a, b, ref) -> out.append("Dean leaving room");
+
+
+	//Blocks while the dean is inside, then enters
+	void enter();
+
+
+	void exit();
+
+
+	/*
+	The dean enters if the room qualifies for a visit right now and waits inside until every student has left. Returns
+	whether the dean went in.
+	*/
+	boolean visit();
+
+
+	/*
+	Blocks the dean until a student finds the room qualifies for a visit, returning true, or until stop() is called,
+	returning false. The room is not polled while the dean waits.
+	*/
+	boolean awaitQualifies();
+
+
+	//Releases the dean from awaitQualifies() for good
+	void stop();
+
+
+	//Visits the dean reacted to and the mean and longest time it took to, in milliseconds
+	long getReactions();
+
+	double getMeanLatency();
+
+	double getMaxLatency();
+
+
+	//Visits the room stopped qualifying for before the dean got there
+	long getMissed();
+
+
+	long getDeanLocks();
+
+	long getStudentLocks();
+}
@@ -0,0 +1,120 @@
+/*
+	RoomCheck.java - Stress checks that the dean never visits a room with a student in it who outlasts the visit.
+
+	Every round a number of students repeatedly enter and leave one room, lingering inside and outside for random times,
+	while the dean keeps calling visit(). Each student stamps itself from a shared counter once enter() returns and clears
+	its stamp before it calls exit(), and the dean takes a stamp before and after every visit() call. The dean only enters
+	an empty room or a party and stays until everybody has left, so after a visit() that returns true:
+
+		- No student may still hold a stamp from before the call. One that does was inside for the whole visit, so the
+		  dean either searched a room that was not empty or left while the student was still inside.
+
+	Once the students have finished the room must be empty. Rounds alternate between a StripedRoom and a FairRoom, each
+	with a random threshold, so that both searches and break ups are made.
+
+	OK is printed if every round passes, otherwise the first failure is printed and the exit status is 1.
+
+	Invoke as: java RoomCheck [students] [rounds] [pairs_per_student] [timeout_millis]
+*/
+
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class RoomCheck {
+
+	//Visits made over every round
+	private static long visits;
+
+
+	//Returns null if the round passed, otherwise what went wrong
+	static String round(boolean striped, int students, int pairs, long timeout) throws InterruptedException {
+
+		int threshold = 1 + ThreadLocalRandom.current().nextInt(students);
+		Room room = striped ? new StripedRoom(threshold, false) : new FairRoom(threshold, false);
+		String setup = (striped ? "striped" : "fair") + " room, threshold " + threshold + ": ";
+
+		AtomicLong stamps = new AtomicLong();
+		AtomicLongArray since = new AtomicLongArray(students);
+		AtomicReference<String> failure = new AtomicReference<String>();
+		Thread[] workers = new Thread[students];
+
+		for (int t=0; t<students; t++) {
+			final int id = t;
+			since.set(id, -1);
+			workers[t] = new Thread(() -> {
+				ThreadLocalRandom r = ThreadLocalRandom.current();
+
+				for (int i=0; i<pairs && failure.get() == null; i++) {
+					room.enter();
+					since.set(id, stamps.incrementAndGet());
+					for (int k=r.nextInt(4); k>0; k--)
+						Thread.yield();
+
+					since.set(id, -1);
+					room.exit();
+					for (int k=r.nextInt(8); k>0; k--)
+						Thread.yield();
+				}
+			});
+			workers[t].setDaemon(true);
+		}
+
+		for (Thread w : workers)
+			w.start();
+
+		//The dean visits for as long as any student is still going
+		long until = System.currentTimeMillis() + timeout;
+		boolean going = true;
+		while (going && failure.get() == null && System.currentTimeMillis() < until) {
+			long before = stamps.incrementAndGet();
+			boolean went = room.visit();
+			stamps.incrementAndGet();
+
+			if (went) {
+				visits++;
+				for (int i=0; i<students; i++) {
+					long s = since.get(i);
+					if (s != -1 && s < before)
+						failure.compareAndSet(null, setup + "student " + i + " was inside for the whole of a visit");
+				}
+			}
+
+			going = false;
+			for (Thread w : workers)
+				going |= w.isAlive();
+			Thread.yield();
+		}
+
+		if (failure.get() != null)
+			return failure.get();
+		if (going)
+			return setup + "students were still going after " + timeout + " ms";
+
+		if (!room.visit())
+			return setup + "the dean could not search the room once every student had left";
+		return null;
+	}
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int students = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+		int pairs = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		long timeout = args.length > 3 ? Long.parseLong(args[3]) : 30000;
+
+		for (int i=0; i<rounds; i++) {
+			String failure = round(i % 2 == 0, students, pairs, timeout);
+			if (failure != null) {
+				System.out.println("FAIL round " + (i + 1) + ": " + failure);
+				System.exit(1);
+			}
+		}
+
+		System.out.println("OK " + rounds + " rounds of " + students + " students, " + visits + " visits");
+	}
+}
@@ -4,84 +4,127 @@
 	The style of solution is identical to RoomSearch1.c but implemented in a different language.
 	
 	As with RoomSearch1.c an input file containing student attributes must be provided but with all
-	attributes separated by spaces. An integer for the interval the dean checks the room must also be provided.
+	attributes separated by spaces. An integer for the interval the dean checks the room may also be provided.
 	
-	Invoke as: java RoomSearch2 <student_file> <dean_interval_integer>
+	Invoke as: java RoomSearch2 <student_file> [dean_interval_integer] [-threshold n] [-striped] [-virtual] [-vthreads] [-quiet]
+	
+	The dean breaks up a party once more than 'threshold' students are in the room, 50 unless given with -threshold, and
+	searches the room when it is empty. Given an interval the dean polls the room every that many seconds as in
+	RoomSearch1.c. Otherwise the dean sleeps until a student wakes it: the student whose entry takes the room over the
+	threshold or whose exit leaves it empty, so the dean never polls.
+	
+	Either way the dean's reaction latency, from the moment the room first qualified for a visit to the dean entering, and
+	the number of times the dean and the students took the room's lock are printed. A visit the room stopped qualifying
+	for before the dean got there counts as missed.
+	
+	The room is a FairRoom, where every student takes the room's lock to enter and leave, unless -striped is given, when
+	it is a StripedRoom, where students only take it while the dean is counting them or inside.
+	
+	With -virtual the run is timed by a virtual Clock which skips ahead whenever every thread is blocked, so it finishes
+	as fast as the threads' events can be processed and reports the idle times a real run would. With -vthreads the
+	students and the dean are virtual threads rather than platform threads, on Java 21 or later.
+	
+	The input file is memory mapped and read by a ScenarioFile, and each student is started as its line is read. If the
+	file is in order of arrival each student is only started shortly before it arrives, so large scenarios never have
+	every student alive at once.
+	
+	Students and the dean never print as they go: what they do is logged to the EventLog and printed by its own thread,
+	so none of them waits on the console, and the dean's entering and leaving are logged from under the room's lock
+	without holding it any longer. With -quiet nothing is printed but the idle times and the dean's figures.
 
 */
 
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.Condition;
-import java.util.Scanner;
-import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 
 
 public class RoomSearch2 {
 	
-	private final ReentrantLock roomLock = new ReentrantLock(true);
-	private final Condition roomCond = roomLock.newCondition();
-	private final Condition dCond = roomLock.newCondition();
-	private boolean dean_in;
-	private int size;
-	private boolean end;
+	private final Room room;
+	private volatile boolean end;
+	private Arrivals arrivals;
+	
+	//The ID and idle time of every student, in the order they were read
+	private int[] ids;
+	private double[] idles;
+	
+	//The events each student logs, with its ID, and the dean's
+	private static final EventLog.Format ARRIVED = (out, id, b, ref) -> out.append("Student ").append(id).append(" has arrived");
+	private static final EventLog.Format ENTERING = (out, id, b, ref) -> out.append("Student ").append(id).append(" now entering room");
+	private static final EventLog.Format LEFT = (out, id, b, ref) -> out.append("Student ").append(id).append(" has left");
+	private static final EventLog.Format DEAN_ARRIVED = (out, a, b, ref) -> out.append("Dean has arrived");
+	private static final EventLog.Format DEAN_LEAVING = (out, a, b, ref) -> out.append("Dean is leaving");
 	
 	
 	/*
 	To initialize the problem's global variables
 	*/
-	public RoomSearch2() {
-		dean_in = false;
+	public RoomSearch2(Room room) {
+		this.room = room;
 		end = false;
-		size = 0;
 	}
 
 	
-	//Main method calls here where all threads are initialized and have their attributes set
-	public void init(int[] i, int[] a, int[] d, int d_i) {
-		
-		Student[] students = new Student[i.length];
+	//Main method calls here where each thread is created and started as its attributes are read from the input file
+	public void init(ScenarioFile in, int d_i) throws IOException {
 		
-		//Create all student threads
-		for (int j=0; j<i.length; j++) 
-			students[j] = new Student(i[j],a[j],d[j]);
+		arrivals = new Arrivals(in.isSortedBy(3, 1));
+		Actors.Group students = new Actors.Group();
 			
 		//Create dean thread	
-		Dean de = new Dean(d_i);
-		de.start();
+		Thread de = d_i > 0 ? new Dean(d_i) : new EventDean();
+		Actors.start(de);
 
-		//Start all threads
-		for (int j=0; j<i.length; j++) 
-			students[j].start();
+		/*
+		Create and start each student, only once it is nearly due if the file is in order of arrival. Each leaves its idle
+		time at its place in the file, so no student is held on to once it has finished.
+		*/
+		int numThreads = in.nextInt();
+		ids = new int[numThreads];
+		idles = new double[numThreads];
+		for (int j=0; j<numThreads; j++) {
+			Student s = new Student(j, in.nextInt(), in.nextInt(), in.nextInt());
+			ids[j] = s.ID;
+			arrivals.admit(s, 1000L*s.arrival, students);
+		}
 	
-		try {
-			for (int j=0; j<i.length; j++) 
-				students[j].join();
-		} catch (InterruptedException e) {}	
+		students.join();
 		
+		//Stop the dean as well, rather than leaving it to make one more visit to the empty room
 		end = true;
+		room.stop();
+		Actors.interrupt(de);
+		try {
+			Actors.join(de);
+		} catch (InterruptedException e) {}
+		arrivals.finish();
+		EventLog.flush();
 		
 		double sum = 0;
-		for (int j=0; j<i.length; j++) {  
-			System.out.println("Thread " + students[j].ID + " idle time: " + students[j].idle/1000);
-			sum += students[j].idle/1000;
+		for (int j=0; j<numThreads; j++) {  
+			System.out.println("Thread " + ids[j] + " idle time: " + idles[j]/1000);
+			sum += idles[j]/1000;
 		}
 
-		System.out.println("Average wait time: " + sum/students.length);	
-			
+		System.out.println("Average wait time: " + sum/numThreads);	
+		
+		System.out.printf("Dean reactions: %d - missed: %d - reaction latency mean: %.3f ms - max: %.3f ms%n", room.getReactions(),
+			room.getMissed(), room.getMeanLatency(), room.getMaxLatency());
+		System.out.println("Lock acquisitions - dean: " + room.getDeanLocks() + " - students: " + room.getStudentLocks());
 
 	}
 	
 	
 	class Student extends Thread {
 		
+		private int place;
 		private int ID;
 		private int arrival;
 		private int duration;
-		private double idle;
 		
 		
-		public Student(int i, int a, int d) {
+		public Student(int p, int i, int a, int d) {
+			this.place = p;
 			this.ID = i;
 			this.arrival = a;
 			this.duration = d;
@@ -94,35 +137,23 @@ public class RoomSearch2 {
 		public void run() {
 			
 			try {
-				Thread.sleep(1000*arrival);
-				long start = System.currentTimeMillis();
+				arrivals.awaitArrival(1000L*arrival);
+				long start = Clock.currentTimeMillis();
 				
-				System.out.println("Student " + ID + " has arrived");
+				EventLog.log(ARRIVED, ID);
 			
-				roomLock.lock();
-				
-				if (dean_in)
-					roomCond.await();
-				
-				idle = (double) (System.currentTimeMillis() - start);
-				System.out.println("Student " + ID + " now entering room");
+				room.enter();
 				
-				size++;
-				roomLock.unlock();
+				idles[place] = (double) (Clock.currentTimeMillis() - start);
+				EventLog.log(ENTERING, ID);
 				
 				try {
-					Thread.sleep(1000*duration);
+					Clock.sleep(1000*duration);
 				} catch (InterruptedException e) {}
 
-				roomLock.lock();
-				size--;
+				room.exit();
 				
-				System.out.println("Student " + ID + " has left");
-
-				if (size == 0)
-					dCond.signal();
-
-				roomLock.unlock();
+				EventLog.log(LEFT, ID);
 			} catch (InterruptedException e) {}	
 		}		
 	}
@@ -145,70 +176,103 @@ public class RoomSearch2 {
 			
 			while (!end) {
 				try {
-					Thread.sleep(1000*interval);
+					Clock.sleep(1000*interval);
 					
-					System.out.println("Dean has arrived");
+					EventLog.log(DEAN_ARRIVED, 0);
 			
-					roomLock.lock();
-					
-					if (size == 0 || size > 3) {
-						System.out.println("Dean entering room");
-						dean_in = true;
-						
-						if (size != 0)
-							dCond.await();
-						
-						dean_in = false;
-						System.out.println("Dean leaving room");
-						roomCond.signalAll();
-					}
+					room.visit();
 					
-					System.out.println("Dean is leaving");
-
-					roomLock.unlock();
+					EventLog.log(DEAN_LEAVING, 0);
 				} catch (InterruptedException e) {}		
 			}	
 		}	
 	}
 	
 	
+	//A dean that sleeps until a student finds the room qualifies for a visit, rather than polling it
+	class EventDean extends Thread {
+		
+		public void run() {
+			
+			while (room.awaitQualifies()) {
+				EventLog.log(DEAN_ARRIVED, 0);
+				room.visit();
+				EventLog.log(DEAN_LEAVING, 0);
+			}
+		}
+	}
+	
+	
 	/*
-	Main method reads input file and sends data to create threads.
+	Main method opens the input file and sends it to create threads.
 	*/
 	public static void main(String[] args) {
 		
-		if (args.length != 2) {
-			System.out.println("Invalid invocation, usage: java RoomSearch2 <input-file> <integer>");
+		int interval = 0;
+		int threshold = 50;
+		boolean striped = false;
+		boolean virtual = false;
+		boolean vthreads = false;
+		boolean quiet = false;
+		boolean valid = args.length >= 1;
+		
+		try {
+			for (int i=1; i<args.length && valid; i++) {
+				if (args[i].equals("-threshold") && i + 1 < args.length)
+					threshold = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-striped"))
+					striped = true;
+				else if (args[i].equals("-virtual"))
+					virtual = true;
+				else if (args[i].equals("-vthreads"))
+					vthreads = true;
+				else if (args[i].equals("-quiet"))
+					quiet = true;
+				else if (i == 1)
+					interval = Integer.parseInt(args[i]);
+				else
+					valid = false;
+			}
+		} catch (NumberFormatException e) {
+			valid = false;
+		}
+		
+		if (!valid) {
+			System.out.println("Invalid invocation, usage: java RoomSearch2 <input-file> [integer] [-threshold n] [-striped] [-virtual] [-vthreads] [-quiet]");
 			System.exit(-1);
 		}
 		
-		if (Integer.parseInt(args[1]) < 1) {
+		if (args.length > 1 && !args[1].startsWith("-") && interval < 1) {
 			System.out.println("Invalid dean interval specified, must be greater than 0");
 			System.exit(-1);
 		}	
-
-		Scanner fileReader;
 		
-		try {
-			fileReader = new Scanner(new File(args[0]));
-			
-			int numThreads = fileReader.nextInt();
-			int[] IDs = new int[numThreads]; 
-			int[] arrivals = new int[numThreads];
-			int[] durations = new int[numThreads];
-			
-			for (int i=0; i<numThreads; i++) {
-				IDs[i] = fileReader.nextInt();
-				arrivals[i] = fileReader.nextInt();	
-				durations[i] = fileReader.nextInt();		
+		if (threshold < 0) {
+			System.out.println("Invalid threshold specified, must not be negative");
+			System.exit(-1);
+		}	
+
+		EventLog.setText(!quiet);
+		if (virtual)
+			Clock.useVirtual();
+		if (vthreads) {
+			try {
+				Actors.useVirtualThreads();
+			} catch (UnsupportedOperationException e) {
+				System.out.println(e.getMessage() + ", running on platform threads");
 			}
-			
-			RoomSearch2 ex = new RoomSearch2();
-			ex.init(IDs, arrivals, durations, Integer.parseInt(args[1]));
+		}
+
+		try (ScenarioFile in = new ScenarioFile(args[0])) {
+			RoomSearch2 ex = new RoomSearch2(striped ? new StripedRoom(threshold, !quiet) : new FairRoom(threshold, !quiet));
+			ex.init(in, interval);
 			
 		} catch (FileNotFoundException e) {
 			System.out.println("Error, could not find input file(s).");
 			System.exit(-1);
+		} catch (IOException e) {
+			System.out.println("Error, could not read input file: " + e.getMessage());
+			System.exit(-1);
 		}	
 	}	
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+/*
+	RoomSearchBench.java - Measures how entering and leaving the room scales with the number of students.
+
+	Each student thread repeatedly enters and immediately leaves the room for a fixed time while a dean visits it every few
+	milliseconds, with the threshold at half the number of students so that both empty rooms and parties come up. Two
+	rooms are compared:
+
+		fair    - the FairRoom, every entry and exit takes the room's fair lock
+		striped - the StripedRoom, students count themselves in a LongAdder and only take the lock around the dean's visits
+
+	Besides entries per second, the share of entries and exits that took the lock and the number of visits the dean made
+	are printed for each.
+
+	Invoke as: java RoomSearchBench [millis_per_run] [dean_interval_millis]
+*/
+
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+public class RoomSearchBench {
+
+	private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+
+	//Returns the total entries per second, the share of student operations that locked and the dean's visits
+	static double[] run(Room room, int n, long millis, long interval) throws InterruptedException {
+
+		AtomicBoolean stop = new AtomicBoolean(false);
+		long[] counts = new long[n];
+		long[] visits = new long[1];
+		Thread[] threads = new Thread[n];
+
+		for (int i=0; i<n; i++) {
+			final int id = i;
+			threads[i] = new Thread(() -> {
+				long ops = 0;
+				while (!stop.get()) {
+					room.enter();
+					room.exit();
+					ops++;
+				}
+				counts[id] = ops;
+			});
+		}
+
+		Thread dean = new Thread(() -> {
+			while (!stop.get()) {
+				try {
+					Thread.sleep(interval);
+				} catch (InterruptedException e) {}
+
+				if (room.visit())
+					visits[0]++;
+			}
+		});
+
+		long start = System.nanoTime();
+		for (Thread t : threads)
+			t.start();
+		dean.start();
+
+		Thread.sleep(millis);
+		stop.set(true);
+
+		for (Thread t : threads)
+			t.join();
+		dean.join();
+
+		double secs = (System.nanoTime() - start) / 1e9;
+		long total = 0;
+		for (long c : counts)
+			total += c;
+
+		return new double[] {total / secs, total == 0 ? 0 : 100.0 * room.getStudentLocks() / (2 * total), visits[0]};
+	}
+
+
+	static Room newRoom(String name, int threshold) {
+		return name.equals("fair") ? new FairRoom(threshold, false) : new StripedRoom(threshold, false);
+	}
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+		long interval = args.length > 1 ? Long.parseLong(args[1]) : 10;
+
+		System.out.println("dean interval=" + interval + "ms cores=" + Runtime.getRuntime().availableProcessors());
+		System.out.printf("%8s %8s %14s %10s %8s%n", "threads", "room", "entries/s", "locked %", "visits");
+
+		for (int n : THREADS) {
+			int threshold = Math.max(1, n / 2);
+
+			for (String name : new String[] {"fair", "striped"}) {
+				//A short warm up of each before measuring
+				run(newRoom(name, threshold), n, millis / 5, interval);
+				double[] r = run(newRoom(name, threshold), n, millis, interval);
+
+				System.out.printf("%8d %8s %14.0f %10.2f %8.0f%n", n, name, r[0], r[1], r[2]);
+			}
+		}
+	}
+}
@@ -0,0 +1,339 @@
+/*
+	StripedRoom.java - A Room whose students only take a lock when the dean needs an exact count.
+
+	Students entering and students leaving are counted in two LongAdders, which spread each count over as many cells as
+	there are threads contending for it, so students entering and leaving at the same time rarely even share a cache line.
+	While the dean is out of the room nobody needs to know the count exactly, and a student enters by adding one to
+	'entered' and leaves by adding one to 'left', without any lock.
+
+	A LongAdder's sum reads its cells one at a time and is no snapshot, so the students inside are never taken as a single
+	sum of increments and decrements, which could see one student's leaving and not its entering and come to 0 with
+	someone inside. Both counts only ever grow and a student always enters before it leaves, so summing 'left' before
+	'entered' never counts fewer students than were inside when the sum began. For its decisions the dean also sums 'left'
+	again afterwards and starts over if it moved, and the count is then how many were inside at some instant in between.
+
+	The dean only takes an exact count when visiting. It first raises 'exact' and then sums the cells, while an entering
+	student first adds itself and then reads 'exact'. Both are volatile, so either the student sees 'exact' raised or the
+	dean's count includes the student. A student that sees it raised takes itself back out, as if it had left, and enters
+	through the lock, waiting there while the dean is inside, and a student leaving while it is raised takes the lock to
+	wake the dean if it was the last one out. Once the dean has left, 'exact' is lowered and students go back to the
+	lock-free path.
+
+	A dean waiting in awaitQualifies() cannot be woken by students that never take the lock, so while one is waiting each
+	student sums the cells after entering or leaving and the first to find the room qualifies takes the lock to wake it.
+	Only that one does: the others see the hint is already given and skip the sum until the dean has visited. Visits the
+	room stopped qualifying for before the dean got there are only noticed when the dean finds it no longer qualifies, and
+	reaction times are only measured for a dean waiting for hints. Students let in through the lock after a visit sum the
+	cells as well, since a party may form among them alone, and a dean that starts waiting sums them once itself so a party
+	that formed while it was busy elsewhere is not left unreported.
+
+	A room made with a 'ready' callback, as DeanScheduler makes them, is always watched and the student giving the hint
+	runs the callback instead of taking the lock.
+*/
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+public class StripedRoom implements Room {
+
+	private final ReentrantLock roomLock = new ReentrantLock(true);
+	private final Clock.Condition roomCond = Clock.newCondition(roomLock);
+	private final Clock.Condition dCond = Clock.newCondition(roomLock);
+	private final Clock.Condition deanWake = Clock.newCondition(roomLock);
+	private final LongAdder entered = new LongAdder();
+	private final LongAdder left = new LongAdder();
+	private final int threshold;
+	private final boolean verbose;
+	private final Runnable ready;
+
+	//When the hint the dean has yet to act on was given, 0 if there is none
+	private final AtomicLong hintedAt = new AtomicLong();
+
+	//Raised by the dean while it needs the count to be exact
+	private volatile boolean exact;
+
+	//Raised while a dean waits in awaitQualifies()
+	private volatile boolean watched;
+
+	//roomLock must be held for all of the following
+	private boolean dean_in;
+	private boolean stopped;
+	private long reactions;
+	private long missed;
+	private long latencySum;
+	private long latencyMax;
+	private long deanLocks;
+	private long studentLocks;
+
+
+	//The dean's entering and leaving are logged to the EventLog if verbose
+	public StripedRoom(int threshold, boolean verbose) {
+		this(threshold, verbose, null);
+	}
+
+
+	//ready is run by the student finding the room qualifies for a visit, once until the dean next visits
+	public StripedRoom(int threshold, boolean verbose, Runnable ready) {
+		this.threshold = threshold;
+		this.verbose = verbose;
+		this.ready = ready;
+		this.watched = ready != null;
+	}
+
+
+	public void enter() {
+
+		entered.increment();
+		if (!exact) {
+			hint();
+			return;
+		}
+
+		//The dean is counting or inside, so back out and enter through the lock
+		left.increment();
+
+		roomLock.lock();
+		try {
+			studentLocks++;
+
+			//The dean may have counted this student before it backed out
+			if (dean_in && count() == 0)
+				dCond.signal();
+
+			while (dean_in)
+				roomCond.awaitUninterruptibly();
+
+			entered.increment();
+		} finally {
+			roomLock.unlock();
+		}
+
+		//Students let in together after a visit may form a party between them
+		hint();
+	}
+
+
+	public void exit() {
+
+		left.increment();
+		if (!exact) {
+			hint();
+			return;
+		}
+
+		roomLock.lock();
+		try {
+			studentLocks++;
+
+			if (count() == 0)
+				dCond.signal();
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public boolean visit() {
+		roomLock.lock();
+		try {
+			deanLocks++;
+
+			exact = true;
+			long n = count();
+			long at = hintedAt.getAndSet(0);
+
+			if (!qualifies(n)) {
+				exact = false;
+				if (at != 0)
+					missed++;
+				return false;
+			}
+
+			if (at != 0)
+				react(at);
+			if (verbose)
+				EventLog.log(DEAN_ENTERING, 0);
+			dean_in = true;
+
+			while (count() != 0)
+				dCond.awaitUninterruptibly();
+
+			dean_in = false;
+			exact = false;
+			if (verbose)
+				EventLog.log(DEAN_LEAVING, 0);
+			roomCond.signalAll();
+			return true;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public boolean awaitQualifies() {
+		roomLock.lock();
+		try {
+			deanLocks++;
+			watched = true;
+
+			/*
+			A party that formed while nobody was watching was never hinted, and may stay as it is. An empty room is not
+			rechecked, it is how the last visit left it.
+			*/
+			if (hintedAt.get() == 0 && count() > threshold)
+				hintedAt.compareAndSet(0, Clock.nanoTime() | 1);
+
+			while (hintedAt.get() == 0 && !stopped)
+				deanWake.awaitUninterruptibly();
+
+			watched = ready != null;
+			return !stopped;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public void stop() {
+		roomLock.lock();
+		try {
+			stopped = true;
+			deanWake.signal();
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public long getReactions() {
+		roomLock.lock();
+		try {
+			return reactions;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public double getMeanLatency() {
+		roomLock.lock();
+		try {
+			return reactions == 0 ? 0 : latencySum / 1e6 / reactions;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public double getMaxLatency() {
+		roomLock.lock();
+		try {
+			return latencyMax / 1e6;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public long getMissed() {
+		roomLock.lock();
+		try {
+			return missed;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public long getDeanLocks() {
+		roomLock.lock();
+		try {
+			return deanLocks;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	public long getStudentLocks() {
+		roomLock.lock();
+		try {
+			return studentLocks;
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	//When a student found the room qualifies for the visit the dean has yet to make, 0 if none has
+	public long getHint() {
+		return hintedAt.get();
+	}
+
+
+	//The number of students inside, only exact while the dean holds the room
+	public long getOccupancy() {
+		return occupancy();
+	}
+
+
+	private boolean qualifies(long n) {
+		return n == 0 || n > threshold;
+	}
+
+
+	//Wakes a waiting dean if the room qualifies for a visit and no other student has already done so
+	private void hint() {
+
+		if (!watched || hintedAt.get() != 0 || !qualifies(occupancy()))
+			return;
+
+		//Never 0, which means no hint
+		if (!hintedAt.compareAndSet(0, Clock.nanoTime() | 1))
+			return;
+
+		if (ready != null) {
+			ready.run();
+			return;
+		}
+
+		roomLock.lock();
+		try {
+			studentLocks++;
+			deanWake.signal();
+		} finally {
+			roomLock.unlock();
+		}
+	}
+
+
+	//Never fewer than were inside when it began, but may count students that have left since
+	private long occupancy() {
+		long out = left.sum();
+		return entered.sum() - out;
+	}
+
+
+	//How many students were inside at some instant during the call, summing again while students keep leaving
+	private long count() {
+		while (true) {
+			long out = left.sum();
+			long in = entered.sum();
+			if (left.sum() == out)
+				return in - out;
+		}
+	}
+
+
+	//roomLock must be held
+	private void react(long at) {
+		//at may be a nanosecond late, made odd so it is never 0
+		long latency = Math.max(0, Clock.nanoTime() - at);
+		latencySum += latency;
+		latencyMax = Math.max(latencyMax, latency);
+		reactions++;
+	}
+}
@@ -0,0 +1,154 @@
+/*
+	FlatCombiner.java - Applies inserts and deletes to an IndexedIntList in batches rather than one lock handoff at a time.
+
+	A thread publishes its request by pushing it onto a shared stack with a single compare-and-set, then tries to take the
+	combiner role. The thread that gets it detaches every published request at once, acquires the SearchInsertDeleteLock a
+	single time for the whole batch (as a deleter if the batch holds any delete, otherwise as an inserter so searchers may
+	carry on), applies the requests in the order they were published and hands each its result. Every other thread parks until
+	the combiner marks its request done and unparks it.
+
+	A combiner keeps serving new batches for up to MAX_PASSES rounds. When it gives up the role it unparks the owner of any
+	request published in the meantime so that thread may take the role over, nothing is ever left waiting without a combiner.
+
+	The classic flat-combining scheme keeps one long-lived publication slot per thread. The threads in SID2 each perform a single
+	operation and exit, so here each request is its own slot and the combiner takes the whole publication list in one swap.
+*/
+
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class FlatCombiner {
+
+	private static final int MAX_PASSES = 4;
+
+	private final IndexedIntList list;
+	private final SearchInsertDeleteLock sidLock;
+	private final AtomicReference<Request> pending = new AtomicReference<Request>();
+	private final AtomicBoolean combining = new AtomicBoolean(false);
+	private long batches;
+	private long combined;
+
+
+	//A published insert or delete, filled in by whichever thread combines it
+	public static final class Request {
+
+		final char type;
+		final int val;
+		final Thread thread;
+		Request next;
+		boolean result;
+		IndexedIntList.Snapshot after;
+		volatile boolean done;
+
+
+		Request(char t, int v) {
+			this.type = t;
+			this.val = v;
+			this.thread = Thread.currentThread();
+		}
+
+
+		//For an insert always true, for a delete whether val was found
+		public boolean result() {
+			return result;
+		}
+
+
+		//A snapshot of the list taken just after this request was applied
+		public IndexedIntList.Snapshot after() {
+			return after;
+		}
+	}
+
+
+	public FlatCombiner(IndexedIntList l, SearchInsertDeleteLock s) {
+		this.list = l;
+		this.sidLock = s;
+	}
+
+
+	/*
+	Publishes an insert ('I') or delete ('D') of val and returns once some thread, possibly this one, has applied it.
+	*/
+	public Request apply(char type, int val) {
+
+		if (type != 'I' && type != 'D')
+			throw new IllegalArgumentException("Only inserts and deletes are combined: " + type);
+
+		Request r = new Request(type, val);
+		do {
+			r.next = pending.get();
+		} while (!pending.compareAndSet(r.next, r));
+
+		while (!r.done) {
+			if (combining.compareAndSet(false, true)) {
+				try {
+					for (int pass=0; pass<MAX_PASSES && pending.get() != null; pass++)
+						combine();
+				} finally {
+					combining.set(false);
+				}
+
+				Request p = pending.get();
+				if (p != null)
+					LockSupport.unpark(p.thread);
+			} else {
+				LockSupport.park(this);
+			}
+		}
+		return r;
+	}
+
+
+	//Average number of requests applied per lock acquisition, only meaningful once every thread has been joined
+	public double averageBatch() {
+		return batches == 0 ? 0 : (double) combined / batches;
+	}
+
+
+	//Only the thread holding the combiner role calls this
+	private void combine() {
+		Request r = pending.getAndSet(null);
+		Request batch = null;
+		boolean deletes = false;
+
+		//The stack is newest first, reverse it so requests are applied in the order they were published
+		while (r != null) {
+			Request next = r.next;
+			r.next = batch;
+			batch = r;
+			deletes |= r.type == 'D';
+			r = next;
+		}
+
+		char mode = deletes ? 'D' : 'I';
+		sidLock.acquire(mode);
+		try {
+			for (r = batch; r != null; r = r.next) {
+				if (r.type == 'I') {
+					list.add(r.val);
+					r.result = true;
+				} else {
+					r.result = list.remove(r.val);
+				}
+				r.after = list.snapshot();
+				combined++;
+			}
+			batches++;
+		} finally {
+			sidLock.release(mode);
+		}
+
+		for (r = batch; r != null; ) {
+			Request next = r.next;
+			Thread t = r.thread;
+			r.done = true;
+			if (t != Thread.currentThread())
+				LockSupport.unpark(t);
+			r = next;
+		}
+	}
+}
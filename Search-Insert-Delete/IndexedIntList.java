@@ -0,0 +1,347 @@
+/*
+	IndexedIntList.java - An insertion ordered list of ints kept in step with an open-addressed hash index so searches and
+	deletes are constant time lookups rather than walks over the list. Nothing is ever boxed.
+
+	The list itself is an append-only log of primitive arrays:
+
+		vals[]     - the value held by each slot in insertion order
+		diedAt[]   - the version at which a slot's value was deleted, 0 while it is live
+		sameNext[] - the next slot holding the same value, so all occurrences of a value form a chain in insertion order
+
+	The index maps each distinct value to the number of live occurrences along with the first and last slot of its chain.
+	Deleting the first occurrence of a value marks the head of its chain dead and advances the chain, and when more than half
+	of the log is dead it is compacted into fresh arrays.
+
+	It is meant to be used under the SearchInsertDeleteLock: any number of searchers may call contains() while a single
+	inserter calls add(), but remove() must have the list to itself. The log arrays and the index are held together in a
+	Store, whose fields never change once it is made. Growing the log, rebuilding the index or compacting makes a new
+	Store and publishes it with a single volatile write, always before the write of the volatile 'end' field that
+	publishes the add or compaction it was made for. A reader that reads 'end' and then the Store therefore sees every
+	slot below that 'end' filled in, in whichever arrays it finds.
+
+	The index is changed in place as values are added, so the key of each entry, whether it is in use and its count of live
+	occurrences are packed into one long of an AtomicLongArray. A searcher reads all three in one volatile read and so never
+	sees a half-linked entry: either the entry as it was or as it is once the add that changes it is done. The chain links
+	are only ever read by the inserter or by remove(), and are left in plain arrays.
+
+	Every add and remove bumps a version number. A Snapshot records the log arrays, 'end' and the version without copying
+	anything and shows a slot only if it was below that 'end' and had not died by that version. Slots are never rewritten in
+	place: appends only go past the recorded 'end', a delete only stamps a later version into diedAt[], and growing or
+	compacting the log moves to fresh arrays while the snapshot keeps the old ones. A snapshot taken under the
+	SearchInsertDeleteLock may therefore be read after the lock is released without blocking writers or seeing their changes.
+	The only write it can race is a later remove() stamping diedAt[], and it treats that slot as live whether it reads the
+	stamp or the 0 before it, since the stamp is always past its version.
+*/
+
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntConsumer;
+
+
+public class IndexedIntList {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private volatile Store store = new Store(new int[MIN_CAPACITY], new long[MIN_CAPACITY], new int[MIN_CAPACITY],
+		new Index(MIN_CAPACITY * 2));
+	private volatile int end;
+	private int live;
+	private volatile long version;
+
+
+	//The log arrays and the index that goes with them, replaced whole whenever any of them is
+	static final class Store {
+
+		final int[] vals;
+		final long[] diedAt;
+		final int[] sameNext;
+		final Index index;
+
+
+		Store(int[] v, long[] d, int[] s, Index ix) {
+			this.vals = v;
+			this.diedAt = d;
+			this.sameNext = s;
+			this.index = ix;
+		}
+	}
+
+
+	//Open-addressed table from value to its occurrence chain, linear probing with a power of two capacity
+	static final class Index {
+
+		//Set in every entry in use, the low 31 bits below it are the count and the high 32 bits the key
+		static final long USED = 1L << 31;
+
+		final int mask;
+		final AtomicLongArray entries;
+		final int[] first;
+		final int[] last;
+		int distinct;
+
+
+		Index(int capacity) {
+			mask = capacity - 1;
+			entries = new AtomicLongArray(capacity);
+			first = new int[capacity];
+			last = new int[capacity];
+		}
+
+
+		//Returns the table position of key, or the empty position where it would go
+		int probe(int key) {
+			int i = hash(key) & mask;
+			long e;
+			while (((e = entries.get(i)) & USED) != 0 && (int) (e >>> 32) != key)
+				i = (i + 1) & mask;
+			return i;
+		}
+
+
+		boolean used(int i) {
+			return (entries.get(i) & USED) != 0;
+		}
+
+
+		int key(int i) {
+			return (int) (entries.get(i) >>> 32);
+		}
+
+
+		//Live occurrences of the key at position i, 0 if the position is not in use
+		int count(int i) {
+			return (int) (entries.get(i) & (USED - 1));
+		}
+
+
+		//Publishes the key at position i with its count, in use from now on
+		void set(int i, int key, int count) {
+			entries.set(i, ((long) key << 32) | USED | count);
+		}
+
+
+		static int hash(int key) {
+			int h = key * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+
+
+	//A consistent, read-only view of the list as of one version
+	public static final class Snapshot {
+
+		private final int[] vals;
+		private final long[] diedAt;
+		private final int end;
+		private final long version;
+
+
+		Snapshot(int[] v, long[] d, int e, long ver) {
+			this.vals = v;
+			this.diedAt = d;
+			this.end = e;
+			this.version = ver;
+		}
+
+
+		public long version() {
+			return version;
+		}
+
+
+		//Passes each value live as of this snapshot to action in insertion order
+		public void forEach(IntConsumer action) {
+			for (int i=0; i<end; i++) {
+				long d = diedAt[i];
+				if (d == 0 || d > version)
+					action.accept(vals[i]);
+			}
+		}
+
+
+		//Formats the values in the same format as Arrays.toString(), only done when the snapshot is actually printed
+		public String toString() {
+			StringBuilder sb = new StringBuilder("[");
+			forEach(v -> {
+				if (sb.length() > 1)
+					sb.append(", ");
+				sb.append(v);
+			});
+			return sb.append(']').toString();
+		}
+	}
+
+
+	/*
+	Returns true if the list holds at least one live occurrence of val.
+	*/
+	public boolean contains(int val) {
+		if (end == 0)
+			return false;
+
+		Index ix = store.index;
+		return ix.count(ix.probe(val)) > 0;
+	}
+
+
+	/*
+	Appends val to the end of the list.
+	*/
+	public void add(int val) {
+		Store st = store;
+		int slot = end;
+
+		if (slot == st.vals.length)
+			st = growLog(st);
+
+		st.vals[slot] = val;
+		st.diedAt[slot] = 0;
+		st.sameNext[slot] = -1;
+		link(st.index, st.sameNext, val, slot);
+		live++;
+
+		Index ix = st.index;
+		if (ix.distinct * 2 > ix.mask + 1)
+			store = new Store(st.vals, st.diedAt, st.sameNext, rebuildIndex(ix, (ix.mask + 1) * 2));
+
+		version++;
+		end = slot + 1;
+	}
+
+
+	/*
+	Removes the first occurrence of val. Returns false if val is not in the list.
+	*/
+	public boolean remove(int val) {
+		Store st = store;
+		Index ix = st.index;
+		int i = ix.probe(val);
+		int count = ix.count(i);
+
+		if (count == 0)
+			return false;
+
+		int slot = ix.first[i];
+		long v = version + 1;
+		st.diedAt[slot] = v;
+		version = v;
+		ix.first[i] = st.sameNext[slot];
+		ix.set(i, val, count - 1);
+		live--;
+
+		if (end > MIN_CAPACITY && end - live > live)
+			compact();
+
+		return true;
+	}
+
+
+	public int size() {
+		return live;
+	}
+
+
+	/*
+	Returns a view of the list as it is now in constant time, nothing is copied. The caller must not race a remove() while
+	taking it, which the SearchInsertDeleteLock already ensures for searchers and inserters.
+	*/
+	public Snapshot snapshot() {
+		//'end' first, the Store it was published with or a later one holds every slot below it
+		int n = end;
+		Store st = store;
+		return new Snapshot(st.vals, st.diedAt, n, version);
+	}
+
+
+	/*
+	Lists the live values in insertion order in the same format as Arrays.toString()
+	*/
+	public String toString() {
+		return snapshot().toString();
+	}
+
+
+	//Adds slot to the end of val's occurrence chain in ix, publishing the new count once the chain is linked
+	private static void link(Index ix, int[] sameNext, int val, int slot) {
+		int i = ix.probe(val);
+		int count = ix.count(i);
+
+		if (!ix.used(i))
+			ix.distinct++;
+
+		if (count == 0)
+			ix.first[i] = slot;
+		else
+			sameNext[ix.last[i]] = slot;
+
+		ix.last[i] = slot;
+		ix.set(i, val, count + 1);
+	}
+
+
+	//Copies the log into arrays twice the size and publishes them, the index is shared with the old Store
+	private Store growLog(Store old) {
+		int n = old.vals.length * 2;
+		int[] v = new int[n];
+		long[] d = new long[n];
+		int[] s = new int[n];
+
+		System.arraycopy(old.vals, 0, v, 0, end);
+		System.arraycopy(old.diedAt, 0, d, 0, end);
+		System.arraycopy(old.sameNext, 0, s, 0, end);
+
+		Store st = new Store(v, d, s, old.index);
+		store = st;
+		return st;
+	}
+
+
+	//A fresh index holding only values with live occurrences, whose chains are already linked through sameNext
+	private static Index rebuildIndex(Index old, int capacity) {
+		Index ix = new Index(capacity);
+
+		for (int k=0; k<=old.mask; k++) {
+			int count = old.count(k);
+			if (count == 0)
+				continue;
+
+			int key = old.key(k);
+			int i = ix.probe(key);
+			ix.first[i] = old.first[k];
+			ix.last[i] = old.last[k];
+			ix.set(i, key, count);
+			ix.distinct++;
+		}
+		return ix;
+	}
+
+
+	//Copies the live slots into new arrays and relinks every chain, only called while the list is held exclusively
+	private void compact() {
+		int n = Math.max(MIN_CAPACITY, Integer.highestOneBit(live) * 2);
+		Store old = store;
+		int oldEnd = end;
+		int cap = MIN_CAPACITY * 2;
+
+		while (cap < live * 4)
+			cap *= 2;
+
+		int[] vals = new int[n];
+		long[] diedAt = new long[n];
+		int[] sameNext = new int[n];
+		Index ix = new Index(cap);
+
+		int slot = 0;
+		for (int i=0; i<oldEnd; i++) {
+			if (old.diedAt[i] != 0)
+				continue;
+			vals[slot] = old.vals[i];
+			sameNext[slot] = -1;
+			link(ix, sameNext, old.vals[i], slot);
+			slot++;
+		}
+
+		store = new Store(vals, diedAt, sameNext, ix);
+		end = slot;
+	}
+}
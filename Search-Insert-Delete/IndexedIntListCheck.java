@@ -0,0 +1,279 @@
+/*
+	IndexedIntListCheck.java - Checks the IndexedIntList SID2 uses, both against a plain list and under its lock.
+
+	First the IndexedIntList and an ArrayList are given the same random adds, removes and searches, one thread at a time,
+	over value ranges from a handful to thousands of values so that the log grows, the index is rebuilt and the log is
+	compacted many times. Every answer, the size and the contents must match.
+
+	Then a number of threads share one list under a SearchInsertDeleteLock, searching alongside a single inserter and
+	deleting on their own, as in SID2. Every value is added once only and in increasing order, and the state of each value
+	is recorded while the lock is still held, as an inserter takes it and once the add or remove of it returns:
+
+		- A searcher must find every value whose add has returned and which has not been removed, and must never find a
+		  value that has been removed or that no inserter has taken yet.
+		- A deleter must remove a value exactly when it has been added and not removed.
+		- Once every thread has finished the list must hold exactly the values added and not removed, in order.
+
+	Now and then a searcher takes a snapshot instead, noting the state of every value taken so far, and only reads it
+	after its next operation, once it has released the lock and writers have added, removed and compacted around it. The
+	snapshot must list, in order, every value added and not removed when it was taken, none removed by then and none not
+	yet taken, and must still read the same after yet another operation.
+
+	OK is printed if every check passes, otherwise the first failure is printed and the exit status is 1.
+
+	Invoke as: java IndexedIntListCheck [threads] [rounds] [ops_per_thread]
+*/
+
+
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class IndexedIntListCheck {
+
+	//The state of a value in the shared list
+	private static final int NEW = 0;
+	private static final int ADDING = 1;
+	private static final int ADDED = 2;
+	private static final int REMOVED = 3;
+
+	//One in this many searches takes a snapshot instead
+	private static final int SNAPSHOT_EVERY = 100;
+
+
+	//A snapshot yet to be checked, with the state of every value taken before it and how many had been taken after it
+	static final class Pending {
+
+		final IndexedIntList.Snapshot snapshot;
+		final int[] seen;
+		final int takenAfter;
+		long sum = -1;
+
+
+		Pending(IndexedIntList.Snapshot s, int[] states, int after) {
+			this.snapshot = s;
+			this.seen = states;
+			this.takenAfter = after;
+		}
+
+
+		//Returns null if the snapshot shows what it should, otherwise what went wrong
+		String check() {
+			int[] last = {-1};
+			long[] sum = {0};
+			String[] wrong = {null};
+
+			snapshot.forEach(v -> {
+				if (wrong[0] != null)
+					return;
+				if (v <= last[0])
+					wrong[0] = "a snapshot listed " + v + " after " + last[0];
+				else if (v >= takenAfter)
+					wrong[0] = "a snapshot listed " + v + ", which had not been taken when it was";
+				else if (v < seen.length && seen[v] == REMOVED)
+					wrong[0] = "a snapshot listed " + v + ", which had been removed when it was taken";
+
+				//Every added value before this one must have been listed already
+				for (int u=last[0]+1; u<v && u<seen.length && wrong[0]==null; u++)
+					if (seen[u] == ADDED)
+						wrong[0] = "a snapshot left out " + u + ", which was in the list when it was taken";
+				last[0] = v;
+				sum[0] = sum[0] * 31 + v;
+			});
+
+			for (int u=last[0]+1; u<seen.length && wrong[0]==null; u++)
+				if (seen[u] == ADDED)
+					wrong[0] = "a snapshot left out " + u + ", which was in the list when it was taken";
+
+			if (wrong[0] != null)
+				return wrong[0];
+
+			//Read a second time later on it must not have changed
+			if (this.sum != -1 && this.sum != sum[0])
+				return "a snapshot changed once writers had gone on";
+			this.sum = sum[0];
+			return null;
+		}
+	}
+
+
+	//Returns null if the round matched the ArrayList throughout, otherwise what went wrong
+	static String model(int ops) {
+
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		IndexedIntList list = new IndexedIntList();
+		ArrayList<Integer> expected = new ArrayList<Integer>();
+		int range = 1 + rnd.nextInt(rnd.nextBoolean() ? 16 : 4000);
+
+		for (int i=0; i<ops; i++) {
+			int val = rnd.nextInt(range);
+			int op = rnd.nextInt(10);
+
+			if (op < 5) {
+				list.add(val);
+				expected.add(val);
+			} else if (op < 8) {
+				if (list.remove(val) != expected.remove((Integer) val))
+					return "remove(" + val + ") disagreed after " + i + " operations";
+			} else if (list.contains(val) != expected.contains(val)) {
+				return "contains(" + val + ") disagreed after " + i + " operations";
+			}
+
+			if (list.size() != expected.size())
+				return "size " + list.size() + " rather than " + expected.size() + " after " + i + " operations";
+		}
+
+		return compare(list.toString(), expected.toString());
+	}
+
+
+	//Returns null if the round passed, otherwise what went wrong
+	static String shared(int threads, int ops) throws InterruptedException {
+
+		IndexedIntList list = new IndexedIntList();
+		SearchInsertDeleteLock lock = new SearchInsertDeleteLock();
+		AtomicIntegerArray state = new AtomicIntegerArray(threads * ops + 1);
+		AtomicReference<String> failure = new AtomicReference<String>();
+
+		//The next value to add, only changed by the inserter holding the lock
+		AtomicInteger next = new AtomicInteger();
+		Thread[] workers = new Thread[threads];
+
+		for (int t=0; t<threads; t++) {
+			workers[t] = new Thread(() -> {
+				ThreadLocalRandom rnd = ThreadLocalRandom.current();
+				Pending fresh = null;
+				Pending reread = null;
+
+				for (int i=0; i<ops && failure.get() == null; i++) {
+					int op = rnd.nextInt(10);
+					char type = op < 6 ? 'S' : op < 9 ? 'I' : 'D';
+
+					//Snapshots are read an operation and then two after they were taken, never under the lock
+					String wrong = reread != null ? reread.check() : null;
+					if (wrong == null && fresh != null)
+						wrong = fresh.check();
+					if (wrong != null) {
+						failure.compareAndSet(null, wrong);
+						break;
+					}
+					reread = fresh;
+					fresh = null;
+
+					lock.acquire(type);
+					try {
+						if (type == 'I') {
+							int val = next.getAndIncrement();
+							state.set(val, ADDING);
+							list.add(val);
+							state.set(val, ADDED);
+							continue;
+						}
+
+						//Values past those taken so far are not in the list either
+						int val = rnd.nextInt(state.length());
+
+						if (type == 'D') {
+							boolean removed = list.remove(val);
+							if (removed != (state.get(val) == ADDED))
+								failure.compareAndSet(null, "remove(" + val + ") returned " + removed + " for a value "
+									+ describe(state.get(val)));
+							if (removed)
+								state.set(val, REMOVED);
+							continue;
+						}
+
+						if (rnd.nextInt(SNAPSHOT_EVERY) == 0) {
+							int[] seen = new int[next.get()];
+							for (int v=0; v<seen.length; v++)
+								seen[v] = state.get(v);
+							IndexedIntList.Snapshot s = list.snapshot();
+							fresh = new Pending(s, seen, next.get());
+							continue;
+						}
+
+						//No value is removed while a searcher holds the lock, but one may be added while it searches
+						int before = state.get(val);
+						boolean found = list.contains(val);
+						int after = state.get(val);
+						if (before == after && before != ADDING && found != (before == ADDED))
+							failure.compareAndSet(null, "contains(" + val + ") returned " + found + " for a value "
+								+ describe(before));
+					} finally {
+						lock.release(type);
+					}
+				}
+			});
+		}
+
+		for (Thread w : workers)
+			w.start();
+		for (Thread w : workers)
+			w.join();
+
+		if (failure.get() != null)
+			return failure.get();
+
+		StringBuilder expected = new StringBuilder("[");
+		for (int v=0; v<state.length(); v++) {
+			if (state.get(v) != ADDED)
+				continue;
+			if (expected.length() > 1)
+				expected.append(", ");
+			expected.append(v);
+		}
+		expected.append(']');
+
+		return compare(list.toString(), expected.toString());
+	}
+
+
+	//Returns null if the two lists print the same, otherwise where they first differ
+	private static String compare(String held, String expected) {
+		if (held.equals(expected))
+			return null;
+
+		int i = 0;
+		while (i < held.length() && i < expected.length() && held.charAt(i) == expected.charAt(i))
+			i++;
+		int from = Math.max(0, held.lastIndexOf(',', i - 1) + 1);
+		return "the list held ..." + held.substring(from, Math.min(held.length(), i + 30)) + "... where ..."
+			+ expected.substring(Math.min(from, expected.length()), Math.min(expected.length(), i + 30)) + "... was expected";
+	}
+
+
+	private static String describe(int state) {
+		return state == NEW ? "never added" : state == ADDED ? "added and not removed" : state == ADDING ? "being added"
+			: "removed";
+	}
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int ops = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+		for (int i=0; i<rounds * 10; i++) {
+			String failure = model(ops);
+			if (failure != null) {
+				System.out.println("FAIL against ArrayList, round " + (i + 1) + ": " + failure);
+				System.exit(1);
+			}
+		}
+
+		for (int i=0; i<rounds; i++) {
+			String failure = shared(threads, ops);
+			if (failure != null) {
+				System.out.println("FAIL under the lock, round " + (i + 1) + ": " + failure);
+				System.exit(1);
+			}
+		}
+
+		System.out.println("OK " + rounds * 10 + " rounds against ArrayList, " + rounds + " rounds of " + threads
+			+ " threads under the lock");
+	}
+}
@@ -0,0 +1,156 @@
+/*
+	LockFreeList.java - A singly-linked list of ints that searchers, inserters and deleters may all use at the same time
+	without taking any lock.
+
+		- Searches walk the list from the head and never write to it, so they never block or retry.
+		- Inserts append to the tail with a compare-and-set on the last node's next pointer, helping a lagging tail
+		  pointer forward if another inserter got there first.
+		- Deletes first mark the victim's next pointer, which logically removes it and stops anything being appended
+		  after it, then try to unlink it from its predecessor. Any marked node that is left behind is unlinked by
+		  the next delete that walks past it.
+
+	A node's value is only counted by a search or by toString() while its next pointer is unmarked.
+*/
+
+
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class LockFreeList {
+
+	private final Node head = new Node(0);
+	private final AtomicReference<Node> tail = new AtomicReference<Node>(head);
+
+
+	static final class Node {
+
+		final int val;
+		final AtomicMarkableReference<Node> next = new AtomicMarkableReference<Node>(null, false);
+
+
+		Node(int v) {
+			this.val = v;
+		}
+	}
+
+
+	/*
+	Returns true if the list holds an item equal to val which has not been deleted.
+	*/
+	public boolean contains(int val) {
+		Node curr = head.next.getReference();
+
+		while (curr != null) {
+			if (curr.val == val && !curr.next.isMarked())
+				return true;
+			curr = curr.next.getReference();
+		}
+		return false;
+	}
+
+
+	/*
+	Appends val to the end of the list.
+	*/
+	public void add(int val) {
+		Node node = new Node(val);
+
+		while (true) {
+			Node last = tail.get();
+			Node next = last.next.getReference();
+
+			if (next != null) {
+				tail.compareAndSet(last, next);
+				continue;
+			}
+
+			if (last.next.compareAndSet(null, node, false, false)) {
+				tail.compareAndSet(last, node);
+				return;
+			}
+
+			//The last node was deleted under us, nothing may follow it so find the new last node from the head
+			if (last.next.isMarked())
+				tail.compareAndSet(last, findLast());
+		}
+	}
+
+
+	/*
+	Removes the first occurrence of val. Returns false if no undeleted item equal to val was found.
+	*/
+	public boolean remove(int val) {
+
+		while (true) {
+			Node[] window = find(val, true);
+			Node pred = window[0];
+			Node curr = window[1];
+
+			if (curr == null)
+				return false;
+
+			Node succ = curr.next.getReference();
+			if (!curr.next.compareAndSet(succ, succ, false, true))
+				continue;
+
+			pred.next.compareAndSet(curr, succ, false, false);
+			return true;
+		}
+	}
+
+
+	/*
+	Lists the undeleted items in order in the same format as Arrays.toString()
+	*/
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		Node curr = head.next.getReference();
+
+		while (curr != null) {
+			if (!curr.next.isMarked()) {
+				if (sb.length() > 1)
+					sb.append(", ");
+				sb.append(curr.val);
+			}
+			curr = curr.next.getReference();
+		}
+		return sb.append(']').toString();
+	}
+
+
+	/*
+	Walks the list from the head unlinking every marked node it passes. Returns the first unmarked node holding val
+	and its predecessor, or the last unmarked node and null if val is not in the list or match is false.
+	*/
+	private Node[] find(int val, boolean match) {
+		boolean[] marked = {false};
+
+		retry:
+		while (true) {
+			Node pred = head;
+			Node curr = pred.next.getReference();
+
+			while (curr != null) {
+				Node succ = curr.next.get(marked);
+
+				if (marked[0]) {
+					if (!pred.next.compareAndSet(curr, succ, false, false))
+						continue retry;
+					curr = succ;
+				} else if (match && curr.val == val) {
+					return new Node[] {pred, curr};
+				} else {
+					pred = curr;
+					curr = succ;
+				}
+			}
+			return new Node[] {pred, null};
+		}
+	}
+
+
+	private Node findLast() {
+		return find(0, false)[0];
+	}
+}
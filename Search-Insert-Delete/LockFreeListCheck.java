@@ -0,0 +1,113 @@
+/*
+	LockFreeListCheck.java - Stress checks the LockFreeList SID2 uses with -mode lockfree.
+
+	Every round a number of threads add, remove and search at the same time with no lock, half of their operations on
+	values shared by every thread and half on values of their own. Each thread counts how many of each value it added and
+	how many it removed, and the following must hold:
+
+		- A thread always finds a value of its own that it added and has not removed, and never finds one it has removed
+		  every occurrence of, whatever the others are doing to the list around it.
+		- Once every thread has finished, the list holds each value exactly as many times as all the threads together
+		  added it less the removes that reported success, so no add is lost and no remove takes out more than one item.
+
+	OK is printed if every round passes, otherwise the first failure is printed and the exit status is 1.
+
+	Invoke as: java LockFreeListCheck [threads] [rounds] [ops_per_thread]
+*/
+
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class LockFreeListCheck {
+
+	private static final int SHARED = 16;
+	private static final int OWN = 8;
+
+
+	//Returns null if the round passed, otherwise what went wrong
+	static String round(int threads, int ops) throws InterruptedException {
+
+		LockFreeList list = new LockFreeList();
+		AtomicReference<String> failure = new AtomicReference<String>();
+
+		//Net adds of every value by every thread, the shared values first then each thread's own
+		int values = SHARED + threads * OWN;
+		long[][] net = new long[threads][values];
+		Thread[] workers = new Thread[threads];
+
+		for (int t=0; t<threads; t++) {
+			final int id = t;
+			workers[t] = new Thread(() -> {
+				ThreadLocalRandom rnd = ThreadLocalRandom.current();
+				long[] mine = net[id];
+
+				for (int i=0; i<ops && failure.get() == null; i++) {
+					boolean own = rnd.nextBoolean();
+					int val = own ? SHARED + id * OWN + rnd.nextInt(OWN) : rnd.nextInt(SHARED);
+					int op = rnd.nextInt(3);
+
+					if (op == 0) {
+						list.add(val);
+						mine[val]++;
+					} else if (op == 1) {
+						if (list.remove(val))
+							mine[val]--;
+						else if (own && mine[val] > 0)
+							failure.compareAndSet(null, "thread " + id + " could not remove its own " + val);
+					} else {
+						boolean found = list.contains(val);
+						if (own && found != mine[val] > 0)
+							failure.compareAndSet(null, "thread " + id + " searching for its own " + val + " with " + mine[val]
+								+ " in the list found " + (found ? "one" : "none"));
+					}
+				}
+			});
+		}
+
+		for (Thread w : workers)
+			w.start();
+		for (Thread w : workers)
+			w.join();
+
+		if (failure.get() != null)
+			return failure.get();
+
+		long[] expected = new long[values];
+		for (long[] n : net)
+			for (int v=0; v<values; v++)
+				expected[v] += n[v];
+
+		//Take everything back out, every value must come out exactly as many times as expected
+		for (int v=0; v<values; v++) {
+			long found = 0;
+			while (list.remove(v))
+				found++;
+			if (found != expected[v])
+				return "the list held " + found + " of " + v + " rather than " + expected[v];
+		}
+
+		if (!list.toString().equals("[]"))
+			return "the list still held " + list + " once every value was removed";
+		return null;
+	}
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int ops = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+		for (int i=0; i<rounds; i++) {
+			String failure = round(threads, ops);
+			if (failure != null) {
+				System.out.println("FAIL round " + (i + 1) + ": " + failure);
+				System.exit(1);
+			}
+		}
+
+		System.out.println("OK " + rounds + " rounds of " + threads + " threads");
+	}
+}
@@ -4,7 +4,8 @@
 	
 	While SID1.c prioritized deleters and allowed them to bypass waiting searchers and inserters this solution
 	utilizes a free-for-all approach where deleters must wait for no threads to be operating on the list to activate.
-	No condition variables are used, instead threads check if they may enter and sleep if they can't rechecking periodically.
+	Admission is handled by a SearchInsertDeleteLock which queues threads that may not enter and parks them until a
+	releasing thread admits them, so no thread sleeps and rechecks periodically.
 	
 	As with SID1.c a file containing the number of threads and their attributes must be provided on the command line. For java
 	programs however the attributes must be separated by spaces rather than commas, for example:
@@ -16,61 +17,97 @@
 	
 	This specifies 3 threads where the first has ID=1, type=searcher, and value=4.
 	
+	The list engine may be chosen with an optional argument, for example: java SID2 <input_file> -mode lockfree
+	
+		lock     - (default) threads are admitted through the SearchInsertDeleteLock and share an IndexedIntList
+		           so searches and deletes are hash lookups instead of walks over the list.
+		lockfree - threads take no lock at all and share a LockFreeList, searches never block and deleters
+		           no longer need the list to themselves.
+		combining - as lock but inserters and deleters publish their operation to a FlatCombiner which applies
+		           every published operation in one pass under a single lock acquisition.
+	
+	Adding -quiet skips printing each operation and the list contents, only the idle times are reported. With -vthreads
+	every thread is a virtual thread rather than a platform thread, on Java 21 or later.
+	
+	The input file is memory mapped and read by a ScenarioFile, and each thread is started as soon as its line is read
+	rather than once the whole file has been.
+	
+	Threads never print as they go: each outcome is logged to the EventLog, with the list as the thread left it, and
+	printed by the log's own thread.
+	
 	Author: Justin Underhay
 */
 
 
 
-import java.util.LinkedList;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.Scanner;
-import java.util.Arrays;
-import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 
 
 public class SID2 {
 	
-	private int size;
-	private boolean ins_in;
-	private boolean del_in;
-	private final ReentrantLock qLock = new ReentrantLock(true);
-	private final LinkedList list = new LinkedList();
+	private final boolean lockFree;
+	private final boolean combining;
+	private final boolean quiet;
+	private final SearchInsertDeleteLock sidLock = new SearchInsertDeleteLock();
+	private final IndexedIntList list = new IndexedIntList();
+	private final LockFreeList lfList = new LockFreeList();
+	private final FlatCombiner combiner = new FlatCombiner(list, sidLock);
+	
+	//The ID and idle time of every thread, in the order they were read
+	private int[] ids;
+	private double[] idles;
+	
+	//The outcomes each thread logs, with its ID, value and view of the list
+	private static final EventLog.Format FOUND = (out, id, val, view) -> out.append("Searcher ").append(id).append(" found ").append(val)
+		.append(System.lineSeparator()).append(view);
+	private static final EventLog.Format NOT_FOUND = (out, id, val, view) -> out.append("Searcher ").append(id).append(" did not find ")
+		.append(val).append(System.lineSeparator()).append(view);
+	private static final EventLog.Format INSERTED = (out, id, val, view) -> out.append("Inserter ").append(id).append(" inserted ").append(val)
+		.append(System.lineSeparator()).append(view);
+	private static final EventLog.Format REMOVED = (out, id, val, view) -> out.append("Deleter ").append(id).append(" removed ").append(val)
+		.append(System.lineSeparator()).append(view);
+	private static final EventLog.Format NOT_REMOVED = (out, id, val, view) -> out.append("Deleter ").append(id).append(" could not find ")
+		.append(val).append(System.lineSeparator()).append(view);
 	
 	
 	/*
 	To initialize the problem's global variables
 	*/
-	public SID2() {
-		size = 0;
-		ins_in = del_in = false;
+	public SID2(String mode, boolean q) {
+		lockFree = mode.equals("lockfree");
+		combining = mode.equals("combining");
+		quiet = q;
 	}
 	
 	
-	//Main method calls here where all threads are initialized and have their attributes set
-	public void init(int[] IDs, char[] types, int[] vals) {
-		ListThread[] threads = new ListThread[IDs.length];
-		
-		//Create threads
-		for (int j=0; j<threads.length; j++)
-			threads[j] = new ListThread(IDs[j],types[j],vals[j]);
+	//Main method calls here where each thread is created and started as its attributes are read from the input file
+	public void init(ScenarioFile in) {
+		int numThreads = in.nextInt();
+		Actors.Group threads = new Actors.Group();
 		
-		//Begin running all threads
-		for (int k=0; k<threads.length; k++)
-			threads[k].start();
+		//Each thread leaves its idle time at its place in the file, so none is held on to once it has finished
+		ids = new int[numThreads];
+		idles = new double[numThreads];
+		for (int j=0; j<numThreads; j++) {
+			ListThread t = new ListThread(j, in.nextInt(), in.nextChar(), in.nextInt());
+			ids[j] = t.ID;
+			threads.start(t);
+		}
 		
-		try {
-			for (int k=0; k<threads.length; k++)
-				threads[k].join();
-		} catch (InterruptedException e) {}
+		threads.join();
+		EventLog.flush();
 		
 		double sum = 0;
-		for (int k=0; k<threads.length; k++) {
-			System.out.println("Thread " + threads[k].ID + " idle time: " + threads[k].idle/1000);
-			sum += threads[k].idle/1000;
+		for (int k=0; k<numThreads; k++) {
+			System.out.println("Thread " + ids[k] + " idle time: " + idles[k]/1000);
+			sum += idles[k]/1000;
 		}	
 		
-		System.out.println("Average idle time: " + sum/threads.length);
+		System.out.println("Average idle time: " + sum/numThreads);
+		
+		if (combining)
+			System.out.println("Average combined batch size: " + combiner.averageBatch());
 		
 	}	
 	
@@ -79,76 +116,96 @@ public class SID2 {
 	//The class that models each thread
 	class ListThread extends Thread {
 		
+		private int place;
 		private int ID;
 		private int val;
 		private char type;
-		private double idle;
 		
 		
-		public ListThread(int I, char T, int V) {
+		public ListThread(int P, int I, char T, int V) {
+			this.place = P;
 			this.ID = I;
 			this.val = V;
 			this.type = T;
 		}	
 
 		/*
-		Threads enter here when started. Each sequentially checks the conditions that allow it to enter and sleeps if it cannot
-		before checking again.
+		Threads enter here when started. Each blocks in the SearchInsertDeleteLock until it is admitted as its type,
+		performs its operation and takes a snapshot of the list then releases the lock which admits any waiters that
+		may now enter. The snapshot is only formatted afterwards, by the EventLog's thread, and only if output is enabled.
 		*/
 		public void run() {
 			
 			long start = System.currentTimeMillis();
-			qLock.lock();
+			boolean result;
+			Object view;
 			
-			try {
-				if (type == 'S') {
-					while (del_in)
-						Thread.sleep(10);
-					
-					size++;
-					qLock.unlock();
-					
-					if (list.contains(val))
-						System.out.println("Searcher " + ID + " found " + val);
-					else
-						System.out.println("Searcher " + ID + " did not find " + val);
-					
-					System.out.println(Arrays.toString(list.toArray()));
-					
-				} else if (type == 'I') {
-					while (ins_in || del_in)
-						Thread.sleep(10);
-					
-					size++;
-					ins_in = true;
-					qLock.unlock();
-					
-					list.add(val);
-					
-					System.out.println("Inserter " + ID + " inserted " + val);
-					System.out.println(Arrays.toString(list.toArray()));
-					
-					ins_in = false;
-					
-				} else {
-					while (size != 0 || del_in)
-						Thread.sleep(10);
-					
-					size++;
-					del_in = true;
-					qLock.unlock();
-					
-					if (list.removeFirstOccurrence(val)) 
-						System.out.println("Deleter " + ID + " removed " + val);
-					else
-						System.out.println("Deleter " + ID + " could not find " + val);
-					System.out.println(Arrays.toString(list.toArray()));
-					del_in = false;
+			if (lockFree) {
+				result = operateLockFree();
+				view = lfList;
+			} else if (combining && type != 'S') {
+				FlatCombiner.Request r = combiner.apply(type, val);
+				result = r.result();
+				view = r.after();
+			} else {
+				sidLock.acquire(type);
+				try {
+					result = operate();
+					view = list.snapshot();
+				} finally {
+					sidLock.release(type);
 				}
+			}
 			
-			} catch (InterruptedException e) {}
-			size--;	
-			idle = (double) (System.currentTimeMillis() - start);
+			if (!quiet)
+				report(result, view);
+			idles[place] = (double) (System.currentTimeMillis() - start);
+		}
+		
+		
+		//Performs this thread's operation on the IndexedIntList, the SearchInsertDeleteLock must be held
+		private boolean operate() {
+			if (type == 'S')
+				return list.contains(val);
+			
+			if (type == 'I') {
+				list.add(val);
+				return true;
+			}
+			return list.remove(val);
+		}
+		
+		
+		//The same operations on the LockFreeList, no thread ever waits for another to be admitted
+		private boolean operateLockFree() {
+			if (type == 'S')
+				return lfList.contains(val);
+			
+			if (type == 'I') {
+				lfList.add(val);
+				return true;
+			}
+			return lfList.remove(val);
+		}
+		
+		
+		/*
+		Logs the outcome of this thread's operation followed by the list. For the LockFreeList the contents printed are
+		whatever a walk of the list sees when the event is printed, otherwise they are the snapshot taken right after the
+		operation.
+		*/
+		private void report(boolean result, Object view) {
+			
+			EventLog.Format f;
+			
+			if (type == 'S')
+				f = result ? FOUND : NOT_FOUND;
+			else if (type == 'I')
+				f = INSERTED;
+			else
+				f = result ? REMOVED : NOT_REMOVED;
+			
+			EventLog.log(f, ID, val, view);
 		}
 	}
 	
@@ -156,37 +213,54 @@ public class SID2 {
 	
 	
 	/*
-	Main method reads input file and sends data to create threads.
+	Main method opens the input file and sends it to create threads.
 	*/
 	public static void main(String[] args) {
 		
-		if (args.length != 1) {
-			System.out.println("Must provide input file on command line: java SID2 <input_file>");
+		String mode = "lock";
+		boolean quiet = false;
+		boolean vthreads = false;
+		boolean valid = args.length >= 1;
+		
+		for (int i=1; i<args.length && valid; i++) {
+			if (args[i].equals("-mode") && i+1 < args.length)
+				mode = args[++i];
+			else if (args[i].equals("-quiet"))
+				quiet = true;
+			else if (args[i].equals("-vthreads"))
+				vthreads = true;
+			else
+				valid = false;
+		}
+		
+		if (!valid) {
+			System.out.println("Must provide input file on command line: java SID2 <input_file> [-mode lock|lockfree|combining] [-quiet] [-vthreads]");
 			System.exit(-1);
-		}		
+		}
 		
-		Scanner fileReader;
+		if (!mode.equals("lock") && !mode.equals("lockfree") && !mode.equals("combining")) {
+			System.out.println("Invalid mode " + mode + ", must be lock, lockfree or combining");
+			System.exit(-1);
+		}
 		
-		try {
-			fileReader = new Scanner(new File(args[0]));
-			
-			int numThreads = fileReader.nextInt();
-			int[] IDs = new int[numThreads]; 
-			int[] vals = new int[numThreads];
-			char[] types = new char[numThreads];
-			
-			for (int i=0; i<numThreads; i++) {
-				IDs[i] = fileReader.nextInt();
-				types[i] = (fileReader.next()).charAt(0);
-				vals[i] = fileReader.nextInt();	
-			}	
-			
-			SID2 ex = new SID2();
-			ex.init(IDs,types,vals);
+		if (vthreads) {
+			try {
+				Actors.useVirtualThreads();
+			} catch (UnsupportedOperationException e) {
+				System.out.println(e.getMessage() + ", running on platform threads");
+			}
+		}
+		
+		try (ScenarioFile in = new ScenarioFile(args[0])) {
+			SID2 ex = new SID2(mode, quiet);
+			ex.init(in);
 			
 		} catch (FileNotFoundException e) {
 			System.out.println("Error, could not find input file.");
 			System.exit(-1);
+		} catch (IOException e) {
+			System.out.println("Error, could not read input file: " + e.getMessage());
+			System.exit(-1);
 		}		
 	}	
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+/*
+	SearchInsertDeleteLock.java - A blocking lock with the three-way admission rules of the 'Search-Insert-Delete' problem.
+
+		- Any number of searchers may hold the lock at once.
+		- One inserter may hold the lock alongside any number of searchers.
+		- A deleter holds the lock exclusively.
+
+	Threads that cannot be admitted are queued in arrival order and parked. Nobody rechecks or sleeps, instead a releasing
+	thread admits waiters from the front of the queue directly, setting their 'granted' flag and unparking them, for as long
+	as the front waiter is compatible with the threads already inside. A new arrival may only bypass the queue when it is empty,
+	so a waiting deleter is never starved by a stream of searchers.
+
+	The internal guard lock is only held for a handful of field updates, never while a thread is parked.
+
+	Usage:
+
+	lock.acquire('S');
+	try {
+		...
+	} finally {
+		lock.release('S');
+	}
+*/
+
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+public class SearchInsertDeleteLock {
+
+	private int searchers;
+	private boolean ins_in;
+	private boolean del_in;
+	private final ReentrantLock guard = new ReentrantLock();
+	private final ArrayDeque<Waiter> queue = new ArrayDeque<Waiter>();
+
+
+	//A thread parked in the queue along with the type of access it is waiting for
+	static final class Waiter {
+
+		final Thread thread;
+		final char type;
+		volatile boolean granted;
+
+
+		Waiter(Thread t, char c) {
+			this.thread = t;
+			this.type = c;
+		}
+	}
+
+
+	/*
+	Blocks until the calling thread may access the list as the given type, 'S' for search, 'I' for insert or 'D' for delete.
+	*/
+	public void acquire(char type) {
+
+		checkType(type);
+		Waiter w;
+
+		guard.lock();
+		try {
+			if (queue.isEmpty() && canEnter(type)) {
+				enter(type);
+				return;
+			}
+
+			w = new Waiter(Thread.currentThread(), type);
+			queue.addLast(w);
+		} finally {
+			guard.unlock();
+		}
+
+		//Interrupts are ignored, the thread is admitted only by a releasing thread
+		while (!w.granted)
+			LockSupport.park(this);
+	}
+
+
+	/*
+	Releases access of the given type and admits as many waiters from the front of the queue as are now compatible.
+	*/
+	public void release(char type) {
+
+		checkType(type);
+
+		guard.lock();
+		try {
+			if (type == 'S') {
+				if (searchers == 0)
+					throw new IllegalMonitorStateException("No searcher holds the lock");
+				searchers--;
+			} else if (type == 'I') {
+				if (!ins_in)
+					throw new IllegalMonitorStateException("No inserter holds the lock");
+				ins_in = false;
+			} else {
+				if (!del_in)
+					throw new IllegalMonitorStateException("No deleter holds the lock");
+				del_in = false;
+			}
+
+			Waiter w;
+			while ((w = queue.peekFirst()) != null && canEnter(w.type)) {
+				queue.pollFirst();
+				enter(w.type);
+				w.granted = true;
+				LockSupport.unpark(w.thread);
+			}
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	//Number of threads currently parked waiting for admission
+	public int getQueueLength() {
+		guard.lock();
+		try {
+			return queue.size();
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	//Guard must be held for the following
+	private boolean canEnter(char type) {
+		if (type == 'S')
+			return !del_in;
+		else if (type == 'I')
+			return !ins_in && !del_in;
+		else
+			return searchers == 0 && !ins_in && !del_in;
+	}
+
+
+	private void enter(char type) {
+		if (type == 'S')
+			searchers++;
+		else if (type == 'I')
+			ins_in = true;
+		else
+			del_in = true;
+	}
+
+
+	private static void checkType(char type) {
+		if (type != 'S' && type != 'I' && type != 'D')
+			throw new IllegalArgumentException("Invalid thread type: " + type);
+	}
+}
@@ -0,0 +1,17 @@
+import random
+import sys
+
+# Writes a SID2 input file to stdout: python Testgen.py <num_threads> [insert_percent] [delete_percent] [seed]
+# Remaining threads are searchers, values are drawn from a range a tenth the size of the thread count.
+
+n = int(sys.argv[1])
+ins = int(sys.argv[2]) if len(sys.argv) > 2 else 40
+dels = int(sys.argv[3]) if len(sys.argv) > 3 else 40
+random.seed(int(sys.argv[4]) if len(sys.argv) > 4 else 1)
+vals = max(1, n // 10)
+
+print(n)
+for i in range(1, n+1):
+	p = random.randint(1,100)
+	t = 'I' if p <= ins else 'D' if p <= ins + dels else 'S'
+	print(str(i) + " " + t + " " + str(random.randint(1,vals)))
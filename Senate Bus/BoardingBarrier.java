@@ -0,0 +1,226 @@
+/*
+	BoardingBarrier.java - Lets a bus board up to 'capacity' waiting riders in a single step.
+
+	Riders arriving at the stop join a queue and park. An arriving bus calls claim(), which takes up to 'capacity' riders
+	off the front of the queue at once. Riders that arrive after that are simply left in the queue for the next bus, as
+	are any beyond the bus's capacity.
+
+	The queue is a linked list with many producers and a single consumer. A rider joins it without any lock, swapping
+	itself in as the new tail with one atomic getAndSet and then linking the old tail to itself. Only buses take a lock,
+	so that one bus at a time drains the queue, and riders never contend with buses or each other on it. A bus reads the
+	tail once when it claims and never takes a rider queued after that, so a rider that arrives during the claim always
+	waits for the next bus. A rider that swapped itself in before that read but has not linked itself yet is only a few
+	instructions away from doing so, and the bus spins, then yields in case that rider was descheduled, until it has.
+
+	The claimed riders are then released together by Batch.release(), which hands each of them the Batch and unparks it.
+	A rider never takes a lock to board, it only counts itself on board in the Batch, and the last one to board unparks
+	the bus, which is waiting in Batch.awaitBoarded() to depart.
+
+	A rider may carry the stop it is travelling to, and a bus with riders already on board may claim fewer than its
+	capacity, for stops along a route as in BusNetwork.
+*/
+
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+public class BoardingBarrier {
+
+	private final int capacity;
+	private final ReentrantLock busLock = new ReentrantLock();
+	private final AtomicReference<Rider> tail;
+	private final LongAdder joined = new LongAdder();
+
+	//Only touched by the bus holding busLock, head is the last rider claimed or the initial dummy
+	private Rider head;
+	private volatile long claimed;
+
+
+	//A rider in the queue, given the Batch of the bus it boards once claimed
+	public static final class Rider {
+
+		final Thread thread;
+		final int destination;
+		volatile Rider next;
+		volatile Batch batch;
+
+
+		Rider(Thread t, int d) {
+			this.thread = t;
+			this.destination = d;
+		}
+
+
+		public int getDestination() {
+			return destination;
+		}
+
+
+		//The Batch of the bus that claimed the rider, or null until one has released it
+		public Batch getBatch() {
+			return batch;
+		}
+	}
+
+
+	//The riders one bus claimed and the count of those yet to board
+	public static final class Batch {
+
+		private final Thread bus;
+		private final Rider[] riders;
+		private final AtomicInteger left;
+
+
+		Batch(Thread b, Rider[] r) {
+			this.bus = b;
+			this.riders = r;
+			this.left = new AtomicInteger(r.length);
+		}
+
+
+		public int size() {
+			return riders.length;
+		}
+
+
+		public Rider get(int i) {
+			return riders[i];
+		}
+
+
+		//Lets every claimed rider board at once
+		public void release() {
+			for (Rider r : riders) {
+				Thread t = r.thread;
+				r.batch = this;
+				Clock.unpark(t);
+			}
+		}
+
+
+		//Called by each rider once on board, the last one wakes the bus
+		public void boarded() {
+			if (left.decrementAndGet() == 0)
+				Clock.unpark(bus);
+		}
+
+
+		//Blocks the bus until every claimed rider has boarded
+		public void awaitBoarded() {
+			while (left.get() > 0)
+				Clock.park(this);
+		}
+	}
+
+
+	public BoardingBarrier(int capacity) {
+
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1");
+
+		this.capacity = capacity;
+		this.head = new Rider(null, -1);
+		this.tail = new AtomicReference<Rider>(head);
+	}
+
+
+	/*
+	Blocks a rider until a bus claims and releases it, then returns that bus's Batch. The rider must call boarded() on it.
+	*/
+	public Batch arrive() {
+		return arrive(-1);
+	}
+
+
+	//As arrive() for a rider travelling to the given stop
+	public Batch arrive(int destination) {
+
+		Rider r = join(destination);
+
+		//Interrupts are ignored, only a bus releases the rider
+		while (r.batch == null)
+			Clock.park(this);
+
+		return r.batch;
+	}
+
+
+	/*
+	Queues a rider for the calling thread without blocking or taking any lock. The thread is unparked once a bus releases
+	the rider.
+	*/
+	public Rider join() {
+		return join(-1);
+	}
+
+
+	//As join() for a rider travelling to the given stop
+	public Rider join(int destination) {
+
+		Rider r = new Rider(Thread.currentThread(), destination);
+		joined.increment();
+
+		Rider prev = tail.getAndSet(r);
+		prev.next = r;
+		return r;
+	}
+
+
+	/*
+	Claims up to capacity of the riders waiting right now for the calling bus. They stay parked until release() is called
+	on the returned Batch, which may be empty.
+	*/
+	public Batch claim() {
+		return claim(capacity);
+	}
+
+
+	//As claim() for a bus with only 'seats' seats free
+	public Batch claim(int seats) {
+
+		int max = Math.max(0, Math.min(seats, capacity));
+		Rider[] riders = new Rider[max];
+		int n = 0;
+
+		busLock.lock();
+		try {
+			//Riders queued after this read are late and left for the next bus
+			Rider last = tail.get();
+			Rider r = head;
+
+			while (n < max && r != last) {
+				Rider next;
+				for (int spins=0; (next = r.next) == null; spins++)
+					if (spins < 64)
+						Thread.onSpinWait();
+					else
+						Thread.yield();
+				riders[n++] = next;
+				r = next;
+			}
+
+			//The last rider claimed becomes the dummy head the next bus starts from
+			head = r;
+			claimed += n;
+		} finally {
+			busLock.unlock();
+		}
+
+		return new Batch(Thread.currentThread(), n == max ? riders : Arrays.copyOf(riders, n));
+	}
+
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+
+	//Number of riders waiting for a bus
+	public int getQueueLength() {
+		return (int) Math.max(0, joined.sum() - claimed);
+	}
+}
@@ -0,0 +1,162 @@
+/*
+	BusNetwork.java - The 'Senate Bus' problem over a whole network of stops served by several routes.
+
+	A route is the list of stops its buses call at in order, looping back to the first stop after the last. Riders wait at
+	a stop for a bus of one route and say how far along that route they are travelling. Each stop of each route has its
+	own BoardingBarrier, so riders at different stops, or waiting for different routes at the same stop, never share a
+	lock, and neither do buses calling at them. There is no lock over the whole network at all.
+
+	Any number of buses may run each route at the same time, each driven by its own thread through Bus.nextStop(). At each
+	stop the riders travelling there get off first, then the bus claims as many of the waiting riders as it has free seats,
+	leaving the rest and anyone arriving during the claim for the next bus. A bus with nobody to pick up simply moves on.
+*/
+
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+public class BusNetwork {
+
+	private final int[][] routes;
+	private final BoardingBarrier[][] stops;
+	private final int capacity;
+	private final LongAdder delivered = new LongAdder();
+
+
+	/*
+	routes[r] lists the stops route r calls at, at least two of them. Every bus carries up to capacity riders.
+	*/
+	public BusNetwork(int[][] routes, int capacity) {
+
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1");
+
+		this.routes = new int[routes.length][];
+		this.stops = new BoardingBarrier[routes.length][];
+		this.capacity = capacity;
+
+		for (int r=0; r<routes.length; r++) {
+			if (routes[r].length < 2)
+				throw new IllegalArgumentException("Route " + r + " must call at two stops or more");
+
+			this.routes[r] = routes[r].clone();
+			stops[r] = new BoardingBarrier[routes[r].length];
+			for (int p=0; p<routes[r].length; p++)
+				stops[r][p] = new BoardingBarrier(capacity);
+		}
+	}
+
+
+	//A bus running one route, only ever used by the thread driving it
+	public final class Bus {
+
+		private final int route;
+		private final int[] alighting;
+		private int onBoard;
+		private int position;
+
+
+		Bus(int r) {
+			this.route = r;
+			this.alighting = new int[routes[r].length];
+		}
+
+
+		/*
+		Calls at the next stop of the route: the riders travelling there get off and as many waiting riders as there are
+		free seats are claimed. Returns them, still to be released if they are waiting in arrive().
+		*/
+		public BoardingBarrier.Batch nextStop() {
+
+			int p = position;
+			position = (p + 1) % alighting.length;
+
+			onBoard -= alighting[p];
+			delivered.add(alighting[p]);
+			alighting[p] = 0;
+
+			BoardingBarrier.Batch batch = stops[route][p].claim(capacity - onBoard);
+			for (int i=0; i<batch.size(); i++)
+				alighting[batch.get(i).getDestination()]++;
+			onBoard += batch.size();
+
+			return batch;
+		}
+
+
+		//The stop the bus calls at next
+		public int getStop() {
+			return routes[route][position];
+		}
+
+
+		public int getOnBoard() {
+			return onBoard;
+		}
+	}
+
+
+	public Bus newBus(int route) {
+		checkRoute(route);
+		return new Bus(route);
+	}
+
+
+	/*
+	Queues a rider at stop 'from' of the route travelling to stop 'to', both positions along the route with from < to,
+	without blocking. The thread is unparked when a bus releases the rider.
+	*/
+	public BoardingBarrier.Rider join(int route, int from, int to) {
+		checkTrip(route, from, to);
+		return stops[route][from].join(to);
+	}
+
+
+	/*
+	As join() but blocks until a bus claims and releases the rider. The rider must call boarded() on the Batch returned.
+	*/
+	public BoardingBarrier.Batch arrive(int route, int from, int to) {
+		checkTrip(route, from, to);
+		return stops[route][from].arrive(to);
+	}
+
+
+	public int getRoutes() {
+		return routes.length;
+	}
+
+
+	public int getStops(int route) {
+		checkRoute(route);
+		return routes[route].length;
+	}
+
+
+	//Number of riders that have got off at their stop
+	public long getDelivered() {
+		return delivered.sum();
+	}
+
+
+	//Number of riders waiting at every stop
+	public long getWaiting() {
+		long n = 0;
+		for (BoardingBarrier[] route : stops)
+			for (BoardingBarrier s : route)
+				n += s.getQueueLength();
+		return n;
+	}
+
+
+	private void checkRoute(int route) {
+		if (route < 0 || route >= routes.length)
+			throw new IllegalArgumentException("Invalid route: " + route);
+	}
+
+
+	private void checkTrip(int route, int from, int to) {
+		checkRoute(route);
+		if (from < 0 || to <= from || to >= routes[route].length)
+			throw new IllegalArgumentException("Invalid trip from " + from + " to " + to + " on route " + route);
+	}
+}
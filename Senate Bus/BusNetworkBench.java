@@ -0,0 +1,94 @@
+/*
+	BusNetworkBench.java - Measures how the throughput of a BusNetwork scales with the number of stops.
+
+	For each network size the stops are split into routes of four stops each, every route run by 'buses' buses. Producer
+	threads queue the riders at random stops of random routes, each travelling to a random later stop on its route, while
+	every bus is driven round its route by its own thread until all the riders have been delivered. Riders are queued
+	without threads of their own, so the bus threads measure the network rather than thread scheduling.
+
+	Invoke as: java BusNetworkBench [riders] [buses_per_route] [capacity] [producers]
+*/
+
+
+import java.util.concurrent.ThreadLocalRandom;
+
+
+public class BusNetworkBench {
+
+	private static final int[] STOPS = {4, 8, 16, 32, 64, 128, 256};
+	private static final int ROUTE_LENGTH = 4;
+
+
+	//Returns riders delivered per second and the mean number of stops a bus called at per rider delivered
+	static double[] run(int stops, int riders, int buses, int capacity, int producers) throws InterruptedException {
+
+		int[][] routes = new int[stops / ROUTE_LENGTH][ROUTE_LENGTH];
+		for (int r=0; r<routes.length; r++)
+			for (int p=0; p<ROUTE_LENGTH; p++)
+				routes[r][p] = r * ROUTE_LENGTH + p;
+
+		BusNetwork network = new BusNetwork(routes, capacity);
+		Thread[] threads = new Thread[producers + routes.length * buses];
+		long[] calls = new long[threads.length];
+
+		for (int i=0; i<producers; i++) {
+			final int share = riders / producers + (i < riders % producers ? 1 : 0);
+			threads[i] = new Thread(() -> {
+				ThreadLocalRandom rnd = ThreadLocalRandom.current();
+				for (int k=0; k<share; k++) {
+					int from = rnd.nextInt(ROUTE_LENGTH - 1);
+					network.join(rnd.nextInt(routes.length), from, from + 1 + rnd.nextInt(ROUTE_LENGTH - 1 - from));
+				}
+			});
+		}
+
+		for (int i=producers; i<threads.length; i++) {
+			final int id = i;
+			final BusNetwork.Bus bus = network.newBus((i - producers) % routes.length);
+			threads[i] = new Thread(() -> {
+				long n = 0;
+				while (network.getDelivered() < riders) {
+					//Riders queued without threads of their own are claimed but never released
+					if (bus.nextStop().size() == 0 && bus.getOnBoard() == 0)
+						Thread.yield();
+					n++;
+				}
+				calls[id] = n;
+			});
+		}
+
+		long start = System.nanoTime();
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+		double secs = (System.nanoTime() - start) / 1e9;
+
+		long total = 0;
+		for (long c : calls)
+			total += c;
+
+		return new double[] {riders / secs, (double) total / riders};
+	}
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int riders = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int buses = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+		int producers = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+		System.out.println("riders=" + riders + " buses per route=" + buses + " capacity=" + capacity + " producers=" + producers
+			+ " cores=" + Runtime.getRuntime().availableProcessors());
+		System.out.printf("%8s %8s %8s %16s %16s%n", "stops", "routes", "buses", "riders/second", "calls/rider");
+
+		for (int stops : STOPS) {
+			//A short warm up of each before measuring
+			run(stops, riders / 10, buses, capacity, producers);
+			double[] r = run(stops, riders, buses, capacity, producers);
+
+			System.out.printf("%8d %8d %8d %16.0f %16.3f%n", stops, stops / ROUTE_LENGTH, stops / ROUTE_LENGTH * buses, r[0], r[1]);
+		}
+	}
+}
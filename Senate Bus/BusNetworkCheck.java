@@ -0,0 +1,232 @@
+/*
+	BusNetworkCheck.java - Stress checks that a BusNetwork carries every rider from the stop it joined at to its own stop.
+
+	Every round builds a network of random routes, some sharing stops, with a random capacity and a few buses on each
+	route, each driven by its own thread. A number of rider threads repeatedly join a random route at a random stop for a
+	random later stop, board whichever bus releases them and wait until they are carried there before the next trip. Each
+	driver follows its bus stop by stop, keeping its own list of the riders on board, and the following must hold:
+
+		- At each stop exactly the riders on board travelling to it get off, and the bus counts as on board only those
+		  still travelling and those it has just picked up.
+		- A bus only picks up riders who joined its route at the stop it is calling at.
+		- No bus ever has more riders on board than its capacity, whatever stop they got on at.
+		- Every trip is carried exactly once, so once the riders have finished nobody is left waiting, the network has
+		  delivered every trip and every bus is empty.
+
+	OK is printed if every round passes, otherwise the first failure is printed and the exit status is 1.
+
+	Invoke as: java BusNetworkCheck [riders] [rounds] [trips_per_rider] [timeout_millis]
+*/
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class BusNetworkCheck {
+
+	//Trips carried over every round
+	private static long carried;
+
+
+	//One trip a rider joined for
+	private static final class Trip {
+
+		final Thread thread;
+		final int rider;
+		final int route;
+		final int from;
+		final int to;
+
+
+		Trip(Thread t, int id, int r, int f, int d) {
+			this.thread = t;
+			this.rider = id;
+			this.route = r;
+			this.from = f;
+			this.to = d;
+		}
+
+
+		public String toString() {
+			return "rider " + rider + " from " + from + " to " + to + " on route " + route;
+		}
+	}
+
+
+	//Returns null if the round passed, otherwise what went wrong
+	static String round(int riders, int trips, long timeout) throws InterruptedException {
+
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		int[][] routes = new int[1 + rnd.nextInt(4)][];
+		for (int r=0; r<routes.length; r++) {
+			routes[r] = new int[2 + rnd.nextInt(5)];
+			for (int p=0; p<routes[r].length; p++)
+				routes[r][p] = rnd.nextInt(8);
+		}
+		int capacity = 1 + rnd.nextInt(6);
+		int buses = 1 + rnd.nextInt(3);
+		String setup = routes.length + " routes, capacity " + capacity + ", " + buses + " buses a route: ";
+
+		BusNetwork network = new BusNetwork(routes, capacity);
+		long total = (long) riders * trips;
+
+		//Riders are only looked up by the bus that claimed them, once they have boarded
+		ConcurrentHashMap<BoardingBarrier.Rider, Trip> joined = new ConcurrentHashMap<BoardingBarrier.Rider, Trip>();
+		AtomicIntegerArray done = new AtomicIntegerArray(riders);
+		AtomicReference<String> failure = new AtomicReference<String>();
+		Thread[] passengers = new Thread[riders];
+		Thread[] drivers = new Thread[routes.length * buses];
+
+		for (int t=0; t<riders; t++) {
+			final int id = t;
+			passengers[t] = new Thread(() -> {
+				ThreadLocalRandom r = ThreadLocalRandom.current();
+
+				for (int i=0; i<trips && failure.get() == null; i++) {
+					int route = r.nextInt(routes.length);
+					int from = r.nextInt(routes[route].length - 1);
+					int to = from + 1 + r.nextInt(routes[route].length - 1 - from);
+
+					Trip trip = new Trip(Thread.currentThread(), id, route, from, to);
+					BoardingBarrier.Rider rider = network.join(route, from, to);
+					joined.put(rider, trip);
+
+					while (rider.getBatch() == null && failure.get() == null)
+						LockSupport.park(network);
+					if (rider.getBatch() == null)
+						break;
+					rider.getBatch().boarded();
+
+					//Waits to be carried to its stop before setting off again
+					while (done.get(id) == i && failure.get() == null)
+						LockSupport.park(network);
+				}
+			});
+			passengers[t].setDaemon(true);
+		}
+
+		for (int b=0; b<drivers.length; b++) {
+			final int route = b % routes.length;
+			final BusNetwork.Bus bus = network.newBus(route);
+			drivers[b] = new Thread(() -> {
+				List<Trip> aboard = new ArrayList<Trip>();
+				int p = 0;
+
+				while (network.getDelivered() < total && failure.get() == null) {
+					List<Trip> off = new ArrayList<Trip>();
+					for (Iterator<Trip> it = aboard.iterator(); it.hasNext(); ) {
+						Trip trip = it.next();
+						if (trip.to == p) {
+							off.add(trip);
+							it.remove();
+						}
+					}
+
+					BoardingBarrier.Batch batch = bus.nextStop();
+					String wrong = null;
+					if (aboard.size() + batch.size() > capacity)
+						wrong = "a bus on route " + route + " took " + batch.size() + " riders at stop " + p + " with "
+							+ aboard.size() + " of " + capacity + " seats taken";
+
+					//Every rider travelling here is off before the bus releases anyone, so may set off again
+					for (Trip trip : off) {
+						done.incrementAndGet(trip.rider);
+						LockSupport.unpark(trip.thread);
+					}
+
+					batch.release();
+					batch.awaitBoarded();
+
+					for (int i=0; i<batch.size() && wrong == null; i++) {
+						Trip trip = joined.remove(batch.get(i));
+						if (trip == null)
+							wrong = "a bus on route " + route + " picked up a rider claimed before";
+						else if (trip.route != route || trip.from != p)
+							wrong = "a bus on route " + route + " picked up " + trip + " at stop " + p;
+						else if (batch.get(i).getDestination() != trip.to)
+							wrong = trip + " was picked up for stop " + batch.get(i).getDestination();
+						else
+							aboard.add(trip);
+					}
+
+					if (wrong == null && bus.getOnBoard() != aboard.size())
+						wrong = "a bus on route " + route + " counted " + bus.getOnBoard() + " riders on board after stop " + p
+							+ " rather than " + aboard.size();
+					if (wrong != null)
+						failure.compareAndSet(null, setup + wrong);
+
+					p = (p + 1) % routes[route].length;
+					if (batch.size() == 0 && aboard.isEmpty())
+						Thread.yield();
+				}
+
+				if (failure.get() == null && (!aboard.isEmpty() || bus.getOnBoard() != 0))
+					failure.compareAndSet(null, setup + "a bus on route " + route + " still had " + aboard + " on board "
+						+ "once every trip was delivered");
+			});
+			drivers[b].setDaemon(true);
+		}
+
+		for (Thread t : passengers)
+			t.start();
+		for (Thread t : drivers)
+			t.start();
+
+		//Threads left parked behind a failure are daemons and are abandoned
+		long until = System.currentTimeMillis() + timeout;
+		for (Thread t : passengers)
+			while (t.isAlive() && failure.get() == null && System.currentTimeMillis() < until)
+				t.join(10);
+		for (Thread t : drivers)
+			while (t.isAlive() && failure.get() == null && System.currentTimeMillis() < until)
+				t.join(10);
+
+		if (failure.get() != null)
+			return failure.get();
+		for (Thread t : passengers)
+			if (t.isAlive())
+				return setup + network.getWaiting() + " riders were still waiting after " + timeout + " ms, routes "
+					+ Arrays.deepToString(routes);
+		for (Thread t : drivers)
+			if (t.isAlive())
+				return setup + "buses were still running after " + timeout + " ms";
+
+		for (int t=0; t<riders; t++)
+			if (done.get(t) != trips)
+				return setup + "rider " + t + " was carried " + done.get(t) + " times rather than " + trips;
+		if (network.getWaiting() != 0)
+			return setup + network.getWaiting() + " riders were left waiting";
+		if (network.getDelivered() != total)
+			return setup + network.getDelivered() + " trips were delivered rather than " + total;
+
+		carried += total;
+		return null;
+	}
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int riders = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+		int trips = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		long timeout = args.length > 3 ? Long.parseLong(args[3]) : 30000;
+
+		for (int i=0; i<rounds; i++) {
+			String failure = round(riders, trips, timeout);
+			if (failure != null) {
+				System.out.println("FAIL round " + (i + 1) + ": " + failure);
+				System.exit(1);
+			}
+		}
+
+		System.out.println("OK " + rounds + " rounds of " + riders + " riders, " + carried + " trips carried");
+	}
+}
@@ -21,127 +21,154 @@
 	which specifies 2 threads of ID 1 and 2 respectively with arrival time in seconds as 3 and 4 respectively.
 
 	The bus file is identical in format, the number of threads on the first line and on every subsequent line the
-	attributes of that thread. Invoke the program as follows: java SenateBus1 <passenger_file> <bus_file>.
+	attributes of that thread. Invoke the program as follows: java SenateBus1 <passenger_file> <bus_file> [-capacity n] [-virtual] [-vthreads] [-quiet]
+	
+	The capacity of the bus is 50 unless given with -capacity. Boarding goes through a BoardingBarrier: an arriving bus
+	claims up to its capacity of the waiting passengers in one step and releases them all at once, and passengers board
+	without taking the stop's lock again.
+	
+	With -virtual the run is timed by a virtual Clock which skips ahead whenever every thread is blocked, so it finishes
+	as fast as the threads' events can be processed and reports the idle times a real run would. With -vthreads every
+	passenger and bus is a virtual thread rather than a platform thread, on Java 21 or later.
+	
+	Both input files are memory mapped and read by ScenarioFiles, and each thread is started as its line is read. If both
+	files are in order of arrival they are read side by side and each thread is only started shortly before it arrives,
+	so large scenarios never have every thread alive at once.
+	
+	Passengers and buses never print as they go: what they do is logged to the EventLog and printed by its own thread, so
+	none of them waits on the console, least of all a bus waiting on its riders. With -quiet it is not printed at all,
+	only the idle times.
 
 	Author: Justin Underhay	
 */
 
 
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.Condition;
-import java.util.Scanner;
-import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 
 
 public class SenateBus1 {
 	
-	private int ticket;
-	boolean boarding;
-	private final ReentrantLock R = new ReentrantLock();
-	private final Condition entry = R.newCondition();
-	private final Condition wait = R.newCondition();
-	private final Condition busWait = R.newCondition();
-	private final Condition nextBus = R.newCondition();
+	private final BoardingBarrier stop;
+	private Arrivals arrivals;
+	
+	//The ID and idle time of every passenger, in the order they were read
+	private int[] ids;
+	private double[] idles;
+	
+	//The events each passenger and bus logs, with its ID
+	private static final EventLog.Format ARRIVED = (out, id, b, ref) -> out.append("Passenger ").append(id).append(" has arrived");
+	private static final EventLog.Format BOARDING = (out, id, b, ref) -> out.append("Passenger ").append(id).append(" now boarding");
+	private static final EventLog.Format BUS_ARRIVED = (out, id, b, ref) -> out.append("Bus ").append(id).append(" has arrived");
+	private static final EventLog.Format BUS_EMPTY = (out, id, b, ref) -> out.append("Bus ").append(id).append(" leaving with no passengers");
+	private static final EventLog.Format BUS_BOARDING = (out, id, b, ref) -> out.append("Bus ").append(id).append(" now boarding");
+	private static final EventLog.Format BUS_LEAVING = (out, id, b, ref) -> out.append("Bus ").append(id).append(" now leaving");
 	
 	
 	/*
 	To initialize the problem's global variables
 	*/
-	public SenateBus1() {
-		ticket = 0;
-		boarding = false;
-		
+	public SenateBus1(int capacity) {
+		stop = new BoardingBarrier(capacity);
 	}
 
-	//Main method calls here where all threads are initialized and have their attributes set
-	public void init(int[] p1, int[] p2, int[] b1, int[] b2) {
-		Passenger[] p = new Passenger[p1.length];
-		Bus[] b = new Bus[b1.length];
-		
-		//Create and start all passenger and bus threads
-		for (int j=0; j<p.length; j++) 
-			p[j] = new Passenger(p1[j], p2[j]);
+	//Main method calls here where each thread is created and started as its attributes are read from the input files
+	public void init(ScenarioFile pf, ScenarioFile bf) throws IOException {
+		arrivals = new Arrivals(pf.isSortedBy(2, 1) && bf.isSortedBy(2, 1));
+		Actors.Group riders = new Actors.Group();
+		Actors.Group buses = new Actors.Group();
 		
-		for (int j=0; j<b.length; j++) 
-			b[j] = new Bus(b1[j], b2[j]);
-
-		for (int k=0; k<p.length; k++) 
-			p[k].start();
+		/*
+		Create and start each passenger and bus thread as it is read. Passengers go first of those arriving at the same
+		time, and if the files are not both in order of arrival all of them go before any bus. Each passenger leaves its
+		idle time at its place in the file, so no thread is held on to once it has finished. Only the passengers are
+		waited for.
+		*/
+		int numRiders = pf.nextInt();
+		int ridersLeft = numRiders;
+		int busesLeft = bf.nextInt();
+		ids = new int[numRiders];
+		idles = new double[numRiders];
+		Passenger rider = null;
+		Bus bus = null;
 		
-		for (int k=0; k<b.length; k++) 
-			b[k].start();
+		while (true) {
+			if (rider == null && ridersLeft > 0) {
+				rider = new Passenger(numRiders - ridersLeft, pf.nextInt(), pf.nextInt());
+				ids[rider.place] = rider.ID;
+				ridersLeft--;
+			}
+			if (bus == null && busesLeft > 0) {
+				bus = new Bus(bf.nextInt(), bf.nextInt());
+				busesLeft--;
+			}
+			
+			if (rider == null && bus == null)
+				break;
+			
+			if (rider != null && (bus == null || !arrivals.isPaced() || rider.arrival <= bus.arrival)) {
+				arrivals.admit(rider, 1000L*rider.arrival, riders);
+				rider = null;
+			} else {
+				arrivals.admit(bus, 1000L*bus.arrival, buses);
+				bus = null;
+			}
+		}
 		
-		try {
-			for (int k=0; k<p.length; k++) 
-				p[k].join();
-		} catch (InterruptedException e) {}
+		riders.join();
+		arrivals.finish();
+		EventLog.flush();
 		
 		double sum = 0;
-		for (int k=0; k<p.length; k++) { 
-			System.out.println("\nPassenger " + p[k].ID + " idle time: " + p[k].idle/1000);
-			sum += p[k].idle/1000;
+		for (int k=0; k<numRiders; k++) { 
+			System.out.println("\nPassenger " + ids[k] + " idle time: " + idles[k]/1000);
+			sum += idles[k]/1000;
 		}
 
-		System.out.println("Average idle time: " + sum/p.length);	
+		System.out.println("Average idle time: " + sum/numRiders);	
 	}
 	
 	
 	//To represent each passenger
 	class Passenger extends Thread {
 		
+		private int place;
 		private int ID;
 		private int arrival;
-		private double idle;
 		
 		
-		public Passenger(int i, int a) {
+		public Passenger(int p, int i, int a) {
+			this.place = p;
 			this.ID = i;
 			this.arrival = a;
 		}
 
 		
 		/*
-		Passenger thread entry point. When a thread arrives it is assigned a 'ticket' number which starts at 0.
-		If the current ticket value is above 49, that is 50 passengers have already arrived, it will block
-		on a condition until those 50 ahead have left. Passengers waiting to board will wait for the bus to signal them
-		then board. The last passenger to board will signal the bus to leave.
+		Passenger thread entry point. An arriving passenger waits at the stop until a bus claims it, passengers beyond the
+		bus's capacity or arriving once it has claimed its riders are left for the next bus. A claimed passenger boards and
+		counts itself on board, the last one to board lets the bus leave.
 		*/
 		public void run() {
 			try {
-				
-				Thread.sleep(1000*arrival);
-				long start = System.currentTimeMillis();
-				
-				System.out.println("Passenger " + ID + " has arrived");
+				arrivals.awaitArrival(1000L*arrival);
+			} catch (InterruptedException e) {}
 			
-				R.lock();
+			long start = Clock.currentTimeMillis();
+			EventLog.log(ARRIVED, ID);
 			
-				if (boarding || ticket > 49)
-					entry.await();
-				
-				ticket++;
-				
-				while (!boarding)
-					wait.await();
-				
-				idle = (double) (System.currentTimeMillis() - start);
-				System.out.println("Passenger " + ID + " now boarding");
-				ticket--;
-				
-				if (ticket == 0) 
-					busWait.signal();
-					
-				R.unlock();
-					
-			} catch (InterruptedException e) {}
+			BoardingBarrier.Batch bus = stop.arrive();
+			
+			idles[place] = (double) (Clock.currentTimeMillis() - start);
+			EventLog.log(BOARDING, ID);
+			bus.boarded();
 		}		
 	}	
 	
 	
 	/*
-	Bus thread entry point. An arriving bus will signal to passenger threads to board and wait until the last 
-	passenger to board signals it. Of course the bus leaves immediately if no passengers are waiting.	
+	Bus thread entry point. An arriving bus claims up to its capacity of the waiting passengers, lets them all board at
+	once and waits until the last of them has boarded. Of course the bus leaves immediately if no passengers are waiting.
 	*/
 	class Bus extends Thread {
 	
@@ -157,81 +184,80 @@ public class SenateBus1 {
 		
 		public void run() {
 			try {
-				
-				Thread.sleep(1000*arrival);
-				System.out.println("Bus " + ID + " has arrived");
+				arrivals.awaitArrival(1000L*arrival);
+			} catch (InterruptedException e) {}
 			
-				R.lock();
+			EventLog.log(BUS_ARRIVED, ID);
 			
-				if (boarding == true)
-					nextBus.await();
-				
-				if (ticket == 0) {
-					R.unlock();
-					System.out.println("Bus " + ID + " leaving with no passengers");
-					System.exit(1);
-				}
-
-				boarding = true;
-				System.out.println("Bus " + ID + " now boarding");
-
-				wait.signalAll();
-				busWait.await();
+			BoardingBarrier.Batch riders = stop.claim();
+			
+			if (riders.size() == 0) {
+				EventLog.log(BUS_EMPTY, ID);
+				return;
+			}
 
-				ticket = 0;
-				boarding = false;
-				System.out.println("Bus " + ID + " now leaving");
-				
-				nextBus.signal();
-				entry.signalAll();		
-				
-				R.unlock();
-			} catch (InterruptedException e) {}	
+			EventLog.log(BUS_BOARDING, ID);
+			riders.release();
+			riders.awaitBoarded();
+			
+			EventLog.log(BUS_LEAVING, ID);
 		}	
 	}	
 	
 
 	/*
-	Main method reads input file and sends data to create threads.
+	Main method opens the input files and sends them to create threads.
 	*/
 	public static void main(String[] args) {
 		
-		if (args.length != 2) {
-			System.out.println("Must provide input files on command line: java SenateBus1 <passenger_file> <bus_file>");
-			System.exit(-1);
-		}		
-		
-		Scanner fileReader;
+		int capacity = args.length >= 2 ? 50 : 0;
+		boolean virtual = false;
+		boolean vthreads = false;
+		boolean quiet = false;
 		
 		try {
-			fileReader = new Scanner(new File(args[0]));
-			
-			int numThreads = fileReader.nextInt();
-			int[] IDs = new int[numThreads]; 
-			int[] arrivals = new int[numThreads];
-			
-			for (int i=0; i<numThreads; i++) {
-				IDs[i] = fileReader.nextInt();
-				arrivals[i] = fileReader.nextInt();				
+			for (int i=2; i<args.length && capacity > 0; i++) {
+				if (args[i].equals("-capacity") && i + 1 < args.length)
+					capacity = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-virtual"))
+					virtual = true;
+				else if (args[i].equals("-vthreads"))
+					vthreads = true;
+				else if (args[i].equals("-quiet"))
+					quiet = true;
+				else
+					capacity = 0;
 			}
-
-			fileReader = new Scanner(new File(args[1]));			
-			
-			numThreads = fileReader.nextInt();
-			int[] bIDs = new int[numThreads]; 
-			int[] bArrivals = new int[numThreads];
-			
-			for (int i=0; i<numThreads; i++) {
-				bIDs[i] = fileReader.nextInt();
-				bArrivals[i] = fileReader.nextInt();	
+		} catch (NumberFormatException e) {
+			capacity = 0;
+		}
+		
+		if (capacity < 1) {
+			System.out.println("Must provide input files on command line: java SenateBus1 <passenger_file> <bus_file> [-capacity n] [-virtual] [-vthreads] [-quiet]");
+			System.exit(-1);
+		}		
+		
+		EventLog.setText(!quiet);
+		if (virtual)
+			Clock.useVirtual();
+		if (vthreads) {
+			try {
+				Actors.useVirtualThreads();
+			} catch (UnsupportedOperationException e) {
+				System.out.println(e.getMessage() + ", running on platform threads");
 			}
-			
-			SenateBus1 ex = new SenateBus1();
-			ex.init(IDs, arrivals, bIDs, bArrivals);
+		}
+		
+		try (ScenarioFile pf = new ScenarioFile(args[0]); ScenarioFile bf = new ScenarioFile(args[1])) {
+			SenateBus1 ex = new SenateBus1(capacity);
+			ex.init(pf, bf);
 			
 		} catch (FileNotFoundException e) {
 			System.out.println("Error, could not find input file(s).");
 			System.exit(-1);
+		} catch (IOException e) {
+			System.out.println("Error, could not read input file(s): " + e.getMessage());
+			System.exit(-1);
 		}
 
 	}
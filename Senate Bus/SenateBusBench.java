@@ -0,0 +1,151 @@
+/*
+	SenateBusBench.java - Measures how fast riders can be queued at a stop and claimed by buses.
+
+	A number of producer threads queue the riders between them as fast as they can while a fleet of bus threads keeps
+	claiming up to 'capacity' riders each, until every rider has been claimed. Riders are only queued and claimed, nobody
+	parks, so what is measured is the queue itself. Two queues are compared:
+
+		locked  - riders and buses share one ReentrantLock around an ArrayDeque, as BoardingBarrier first did
+		mpsc    - the BoardingBarrier, riders join without any lock and only buses take one
+
+	Every batch is checked to hold no more than the capacity and every rider to be claimed exactly once.
+
+	Invoke as: java SenateBusBench [riders] [buses] [capacity] [producers]
+*/
+
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+public class SenateBusBench {
+
+
+	interface Stop {
+		void join();
+		int claim();
+	}
+
+
+	static final class LockedStop implements Stop {
+
+		private final int capacity;
+		private final ReentrantLock guard = new ReentrantLock();
+		private final ArrayDeque<Object> queue = new ArrayDeque<Object>();
+
+
+		LockedStop(int c) {
+			this.capacity = c;
+		}
+
+
+		public void join() {
+			guard.lock();
+			try {
+				queue.addLast(new Object[] {Thread.currentThread()});
+			} finally {
+				guard.unlock();
+			}
+		}
+
+
+		public int claim() {
+			guard.lock();
+			try {
+				int n = Math.min(capacity, queue.size());
+				for (int i=0; i<n; i++)
+					queue.pollFirst();
+				return n;
+			} finally {
+				guard.unlock();
+			}
+		}
+	}
+
+
+	static final class BarrierStop implements Stop {
+
+		private final BoardingBarrier barrier;
+
+
+		BarrierStop(int c) {
+			this.barrier = new BoardingBarrier(c);
+		}
+
+
+		public void join() {
+			barrier.join();
+		}
+
+
+		public int claim() {
+			return barrier.claim().size();
+		}
+	}
+
+
+	//Returns riders queued and claimed per second, the number of non-empty batches and the mean batch size
+	static double[] run(Stop stop, int riders, int buses, int capacity, int producers) throws InterruptedException {
+
+		AtomicLong claimed = new AtomicLong();
+		AtomicLong batches = new AtomicLong();
+		Thread[] threads = new Thread[producers + buses];
+
+		for (int i=0; i<producers; i++) {
+			final int share = riders / producers + (i < riders % producers ? 1 : 0);
+			threads[i] = new Thread(() -> {
+				for (int k=0; k<share; k++)
+					stop.join();
+			});
+		}
+
+		for (int i=0; i<buses; i++)
+			threads[producers + i] = new Thread(() -> {
+				while (claimed.get() < riders) {
+					int n = stop.claim();
+					if (n > capacity)
+						throw new IllegalStateException("Bus claimed " + n + " riders with a capacity of " + capacity);
+					if (n > 0) {
+						claimed.addAndGet(n);
+						batches.incrementAndGet();
+					} else {
+						Thread.yield();
+					}
+				}
+			});
+
+		long start = System.nanoTime();
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+		double secs = (System.nanoTime() - start) / 1e9;
+
+		if (claimed.get() != riders)
+			throw new IllegalStateException(claimed.get() + " riders claimed out of " + riders);
+
+		return new double[] {riders / secs, batches.get(), (double) riders / batches.get()};
+	}
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int riders = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int buses = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+		int producers = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+
+		System.out.println("riders=" + riders + " buses=" + buses + " capacity=" + capacity + " producers=" + producers
+			+ " cores=" + Runtime.getRuntime().availableProcessors());
+		System.out.printf("%8s %16s %10s %12s%n", "queue", "riders/second", "batches", "mean batch");
+
+		for (String name : new String[] {"locked", "mpsc"}) {
+			//A short warm up of each before measuring
+			run(name.equals("locked") ? new LockedStop(capacity) : new BarrierStop(capacity), riders / 10, buses, capacity, producers);
+			double[] r = run(name.equals("locked") ? new LockedStop(capacity) : new BarrierStop(capacity), riders, buses, capacity, producers);
+
+			System.out.printf("%8s %16.0f %10.0f %12.1f%n", name, r[0], r[1], r[2]);
+		}
+	}
+}
@@ -0,0 +1,397 @@
+/*
+	GroupMutex.java - Group mutual exclusion for any number of classes of thread, the engine behind the 'Unisex Bathroom'.
+
+		- Threads of only one class may be inside at a time.
+		- There can never be more than 'capacity' threads inside.
+
+	As in Unisex, whichever class finds the room empty claims it and further threads of that class may keep entering while
+	there is space. Threads that cannot enter wait in a queue for their own class and are parked. When a thread leaves, the
+	releasing thread picks the class allowed in next and admits exactly as many of its waiters as there are free slots,
+	setting their 'granted' flag and unparking them, so no thread is woken only to find it still cannot enter.
+
+	While other classes are waiting, how long the owning class may keep admitting its own threads is up to a SwitchPolicy.
+	Once the policy ends its turn the owner's threads drain out and the policy chooses which waiting class claims the room.
+	The default greedy policy never ends a turn, and the class whose first waiter has been waiting longest claims the room.
+
+	The owning class, the number of threads inside and whether anybody is queued are packed into a single atomic word:
+
+		bits 63-32 - owning class + 1, or 0 before the room is first claimed (kept once the room empties to count flips)
+		bit  31    - WAITING, set while any queue is non-empty
+		bits 30-0  - number of threads inside
+
+	While WAITING is clear, entering and leaving are each a single compare-and-set on that word and never touch the guard
+	lock. A thread that cannot enter takes the guard, sets WAITING and queues itself. Once WAITING is set every enter and exit
+	goes through the guard, so a leaving thread can never miss a queued waiter and the policy sees every admission. The
+	releasing thread clears WAITING again when the queues drain.
+
+	The number of ownership flips and, for every class, how many threads entered straight away and how long queued threads
+	waited are recorded. Waits are kept in a histogram of power of two microsecond buckets.
+
+	Classes are numbered from 0 to classes-1.
+*/
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+public class GroupMutex {
+
+	private static final long WAITING = 1L << 31;
+	private static final long SIZE_MASK = WAITING - 1;
+	private static final int BUCKETS = 48;
+
+	private final int capacity;
+	private final SwitchPolicy policy;
+	private final AtomicLong state = new AtomicLong(0);
+	private final ReentrantLock guard = new ReentrantLock();
+	private final List<ArrayDeque<Waiter>> queues;
+
+	//The following are only touched with the guard held
+	private final int[] waiting;
+	private final long[] oldest;
+	private int totalWaiting;
+	private long tickets;
+	private int turnAdmitted;
+	private long turnStart;
+	private final long[][] waitBuckets;
+	private final long[] maxWait;
+
+	private final LongAdder flips = new LongAdder();
+	private final LongAdder[] immediate;
+
+
+	//A parked thread, the order it arrived in and when it started waiting
+	static final class Waiter {
+
+		final Thread thread;
+		final long ticket;
+		final long since;
+		Waiter next;
+		volatile boolean granted;
+
+
+		Waiter(Thread t, long n, long s) {
+			this.thread = t;
+			this.ticket = n;
+			this.since = s;
+		}
+	}
+
+
+	public GroupMutex(int classes, int capacity) {
+		this(classes, capacity, new SwitchPolicy.Greedy());
+	}
+
+
+	public GroupMutex(int classes, int capacity, SwitchPolicy policy) {
+
+		if (classes < 1 || capacity < 1)
+			throw new IllegalArgumentException("Need at least one class and a capacity of at least one");
+
+		this.capacity = capacity;
+		this.policy = policy;
+		this.queues = new ArrayList<ArrayDeque<Waiter>>(classes);
+		this.waiting = new int[classes];
+		this.oldest = new long[classes];
+		this.waitBuckets = new long[classes][BUCKETS];
+		this.maxWait = new long[classes];
+		this.immediate = new LongAdder[classes];
+
+		for (int i=0; i<classes; i++) {
+			queues.add(new ArrayDeque<Waiter>());
+			immediate[i] = new LongAdder();
+		}
+	}
+
+
+	/*
+	Blocks until a thread of class cls may enter, then enters.
+	*/
+	public void enter(int cls) {
+
+		checkClass(cls);
+
+		long s;
+		while (((s = state.get()) & WAITING) == 0 && admits(s, cls)) {
+			if (state.compareAndSet(s, admit(s, cls))) {
+				if ((s & SIZE_MASK) == 0 && owner(s) != cls && owner(s) != -1)
+					flips.increment();
+				immediate[cls].increment();
+				return;
+			}
+		}
+
+		Waiter w;
+
+		guard.lock();
+		try {
+			long now = Clock.nanoTime();
+
+			while (true) {
+				s = state.get();
+				boolean mayEnter = queues.get(cls).isEmpty() && admits(s, cls);
+				int others = totalWaiting - waiting[cls];
+
+				//Joining an occupied room while other classes wait is up to the policy
+				if (mayEnter && (s & SIZE_MASK) != 0 && others > 0)
+					mayEnter = policy.keepTurn(turnAdmitted, now - turnStart, waiting[cls], others);
+
+				if (mayEnter) {
+					if (state.compareAndSet(s, admit(s, cls))) {
+						if ((s & SIZE_MASK) == 0)
+							startTurn(owner(s), cls, now);
+						turnAdmitted++;
+						immediate[cls].increment();
+						return;
+					}
+				} else if (state.compareAndSet(s, s | WAITING)) {
+					break;
+				}
+			}
+
+			//The first thread of another class to wait starts the owner's turn from now
+			int owner = owner(s);
+			if (owner != -1 && owner != cls && totalWaiting == waiting[owner]) {
+				turnAdmitted = 0;
+				turnStart = now;
+			}
+
+			w = new Waiter(Thread.currentThread(), tickets++, now);
+			queues.get(cls).addLast(w);
+			waiting[cls]++;
+			totalWaiting++;
+		} finally {
+			guard.unlock();
+		}
+
+		//Interrupts are ignored, the thread is admitted only by a leaving thread
+		while (!w.granted)
+			Clock.park(this);
+	}
+
+
+	/*
+	Leaves the room and admits as many waiters of the next eligible class as there are now free slots.
+	*/
+	public void exit(int cls) {
+
+		checkClass(cls);
+
+		long s;
+		while (((s = state.get()) & WAITING) == 0) {
+			checkInside(s, cls);
+			if (state.compareAndSet(s, s - 1))
+				return;
+		}
+
+		Waiter granted = null;
+
+		guard.lock();
+		try {
+			//WAITING is set so no other thread changes the word without holding the guard
+			s = state.get();
+			checkInside(s, cls);
+
+			long now = Clock.nanoTime();
+			int size = (int) (s & SIZE_MASK) - 1;
+			int owner = cls;
+
+			//Keep admitting the owner's own waiters for as long as its turn lasts
+			while (size < capacity && mayAdmit(owner, now)) {
+				granted = grant(owner, granted, now);
+				size++;
+			}
+
+			if (size == 0 && totalWaiting > 0) {
+				int next = policy.choose(waiting, heads(), totalWaiting > waiting[owner] ? owner : -1);
+				startTurn(owner, next, now);
+				owner = next;
+
+				do {
+					granted = grant(owner, granted, now);
+					size++;
+				} while (size < capacity && mayAdmit(owner, now));
+			}
+
+			state.set(((long) (owner + 1) << 32) | (totalWaiting > 0 ? WAITING : 0) | size);
+		} finally {
+			guard.unlock();
+		}
+
+		for (Waiter w = granted; w != null; ) {
+			Waiter next = w.next;
+			Thread t = w.thread;
+			w.granted = true;
+			Clock.unpark(t);
+			w = next;
+		}
+	}
+
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+
+	public SwitchPolicy getPolicy() {
+		return policy;
+	}
+
+
+	//Number of times the room has been claimed by a different class than the one that last held it
+	public long getFlips() {
+		return flips.sum();
+	}
+
+
+	//Number of threads of class cls parked waiting to enter
+	public int getQueueLength(int cls) {
+		checkClass(cls);
+		guard.lock();
+		try {
+			return waiting[cls];
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	//Number of threads of class cls that have entered, including those that never waited
+	public long getEntries(int cls) {
+		checkClass(cls);
+		guard.lock();
+		try {
+			long n = immediate[cls].sum();
+			for (long b : waitBuckets[cls])
+				n += b;
+			return n;
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	//Number of threads of class cls that had to queue before entering
+	public long getQueued(int cls) {
+		return getEntries(cls) - immediate[cls].sum();
+	}
+
+
+	/*
+	The wait in milliseconds that fraction p (between 0 and 1) of the threads of class cls to enter did not exceed,
+	counting threads that entered straight away as waiting 0. Taken from the upper bound of a histogram bucket.
+	*/
+	public double getWaitPercentile(int cls, double p) {
+		checkClass(cls);
+		guard.lock();
+		try {
+			long[] b = waitBuckets[cls];
+			long zero = immediate[cls].sum();
+			long total = zero;
+			for (long n : b)
+				total += n;
+
+			long rank = (long) Math.ceil(p * total);
+			if (rank <= zero)
+				return 0;
+
+			long seen = zero;
+			for (int i=0; i<BUCKETS; i++) {
+				seen += b[i];
+				if (seen >= rank)
+					return Math.min((1L << i) / 1000.0, maxWait[cls] / 1e6);
+			}
+			return maxWait[cls] / 1e6;
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	//The longest any thread of class cls has waited in milliseconds
+	public double getMaxWait(int cls) {
+		checkClass(cls);
+		guard.lock();
+		try {
+			return maxWait[cls] / 1e6;
+		} finally {
+			guard.unlock();
+		}
+	}
+
+
+	//Guard must be held for the following
+
+	private boolean mayAdmit(int owner, long now) {
+		int others = totalWaiting - waiting[owner];
+		return waiting[owner] > 0 && (others == 0 || policy.keepTurn(turnAdmitted, now - turnStart, waiting[owner], others));
+	}
+
+
+	//Hands the first waiter of class cls a slot, it is unparked once the guard is released
+	private Waiter grant(int cls, Waiter granted, long now) {
+		Waiter w = queues.get(cls).pollFirst();
+		waiting[cls]--;
+		totalWaiting--;
+		turnAdmitted++;
+
+		long wait = now - w.since;
+		long micros = wait / 1000;
+		waitBuckets[cls][Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))]++;
+		maxWait[cls] = Math.max(maxWait[cls], wait);
+
+		w.next = granted;
+		return w;
+	}
+
+
+	private void startTurn(int from, int to, long now) {
+		if (from != -1 && from != to)
+			flips.increment();
+		turnAdmitted = 0;
+		turnStart = now;
+	}
+
+
+	private long[] heads() {
+		for (int i=0; i<queues.size(); i++) {
+			Waiter w = queues.get(i).peekFirst();
+			oldest[i] = w == null ? Long.MAX_VALUE : w.ticket;
+		}
+		return oldest;
+	}
+
+
+	//Whether a thread of class cls may enter given word s, ignoring anyone queued
+	private boolean admits(long s, int cls) {
+		long size = s & SIZE_MASK;
+		return size == 0 || (owner(s) == cls && size < capacity);
+	}
+
+
+	private static int owner(long s) {
+		return (int) (s >>> 32) - 1;
+	}
+
+
+	private static long admit(long s, int cls) {
+		return ((long) (cls + 1) << 32) | (s & WAITING) | ((s & SIZE_MASK) + 1);
+	}
+
+
+	private static void checkInside(long s, int cls) {
+		if ((s & SIZE_MASK) == 0 || owner(s) != cls)
+			throw new IllegalMonitorStateException("No thread of class " + cls + " is inside");
+	}
+
+
+	private void checkClass(int cls) {
+		if (cls < 0 || cls >= queues.size())
+			throw new IllegalArgumentException("Invalid class: " + cls);
+	}
+}
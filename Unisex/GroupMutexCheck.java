@@ -0,0 +1,135 @@
+/*
+	GroupMutexCheck.java - Stress checks the GroupMutex behind Unisex under every switch policy.
+
+	Every round picks a number of classes, a capacity and a policy, and a number of threads repeatedly enter as a class
+	chosen at random, stay briefly and leave. Each thread counts itself in once enter returns and out before it calls exit,
+	so the counts never run ahead of the room, and the following must hold:
+
+		- No more than 'capacity' threads are ever counted inside.
+		- While a thread is inside, no thread of any other class is.
+		- Every thread gets through all of its entries, so no waiter is ever left parked.
+		- Once every thread has finished no one is queued, and the entries the mutex recorded match those made.
+
+	Rounds with little contention enter through the compare-and-set fast path, busier ones through the queues, and the
+	number of each is printed at the end.
+
+	OK is printed if every round passes, otherwise the first failure is printed and the exit status is 1.
+
+	Invoke as: java GroupMutexCheck [threads] [rounds] [entries_per_thread] [timeout_millis]
+*/
+
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class GroupMutexCheck {
+
+	private static final String[] POLICIES = {"greedy", "batch:1", "batch:3", "slice:1", "weighted:2"};
+
+	//Entries made in all and those made after queuing, over every round
+	private static long entered;
+	private static long queued;
+
+
+	//Returns null if the round passed, otherwise what went wrong
+	static String round(int threads, int entries, long timeout) throws InterruptedException {
+
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		int classes = 1 + rnd.nextInt(4);
+		int capacity = 1 + rnd.nextInt(4);
+		String spec = POLICIES[rnd.nextInt(POLICIES.length)];
+		String setup = classes + " classes, capacity " + capacity + ", policy " + spec + ": ";
+
+		GroupMutex room = new GroupMutex(classes, capacity, SwitchPolicy.parse(spec));
+		AtomicInteger[] inside = new AtomicInteger[classes];
+		for (int c=0; c<classes; c++)
+			inside[c] = new AtomicInteger();
+		AtomicReference<String> failure = new AtomicReference<String>();
+		Thread[] workers = new Thread[threads];
+
+		//Busy rounds linger inside so that threads queue, the rest mostly walk straight into a free room
+		boolean busy = rnd.nextBoolean();
+
+		for (int t=0; t<threads; t++) {
+			workers[t] = new Thread(() -> {
+				ThreadLocalRandom r = ThreadLocalRandom.current();
+
+				for (int i=0; i<entries && failure.get() == null; i++) {
+					int cls = r.nextInt(classes);
+					room.enter(cls);
+
+					int n = inside[cls].incrementAndGet();
+					if (n > capacity)
+						failure.compareAndSet(null, setup + n + " threads of class " + cls + " were inside at once");
+					for (int c=0; c<classes; c++)
+						if (c != cls && inside[c].get() > 0)
+							failure.compareAndSet(null, setup + "classes " + cls + " and " + c + " were inside together");
+
+					if (busy || r.nextInt(8) == 0)
+						Thread.yield();
+
+					inside[cls].decrementAndGet();
+					try {
+						room.exit(cls);
+					} catch (IllegalMonitorStateException e) {
+						failure.compareAndSet(null, setup + e.getMessage() + " on leaving");
+					}
+
+					if (!busy)
+						Thread.yield();
+				}
+			});
+			workers[t].setDaemon(true);
+		}
+
+		for (Thread w : workers)
+			w.start();
+
+		//Threads left parked behind a failure are daemons and are abandoned
+		long until = System.currentTimeMillis() + timeout;
+		for (Thread w : workers)
+			while (w.isAlive() && failure.get() == null && System.currentTimeMillis() < until)
+				w.join(10);
+
+		if (failure.get() != null)
+			return failure.get();
+		for (Thread w : workers)
+			if (w.isAlive())
+				return setup + "threads were still waiting to enter after " + timeout + " ms";
+
+		long recorded = 0;
+		for (int c=0; c<classes; c++) {
+			if (room.getQueueLength(c) != 0)
+				return setup + room.getQueueLength(c) + " threads of class " + c + " were left queued";
+			recorded += room.getEntries(c);
+			queued += room.getQueued(c);
+		}
+		entered += recorded;
+
+		if (recorded != (long) threads * entries)
+			return setup + recorded + " entries were recorded rather than " + (long) threads * entries;
+		return null;
+	}
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int entries = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		long timeout = args.length > 3 ? Long.parseLong(args[3]) : 30000;
+
+		for (int i=0; i<rounds; i++) {
+			String failure = round(threads, entries, timeout);
+			if (failure != null) {
+				System.out.println("FAIL round " + (i + 1) + ": " + failure);
+				System.exit(1);
+			}
+		}
+
+		System.out.println("OK " + rounds + " rounds of " + threads + " threads, " + (entered - queued)
+			+ " entries through the fast path and " + queued + " after queuing");
+	}
+}
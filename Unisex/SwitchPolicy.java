@@ -0,0 +1,169 @@
+/*
+	SwitchPolicy.java - Decides when the class owning a GroupMutex must give up its turn and which class claims the room next.
+
+	A turn starts when a class claims the room, or when a thread of another class starts waiting while it is owned. From
+	then on, any thread of the owning class that would enter (a new arrival or a queued waiter being admitted by a leaving
+	thread) is only let in while keepTurn() agrees. Once it refuses, the owner's threads drain out of the room and choose()
+	picks which waiting class claims it.
+
+	Policies available from parse():
+
+		greedy       - (default) the owner keeps the room while its threads keep arriving, as Unisex always behaved
+		batch:N      - the owner admits at most N threads per turn while other classes wait
+		slice:MS     - the owner admits threads for at most MS milliseconds per turn while other classes wait
+		weighted:N   - the owner's turn is N threads scaled by the ratio of its queue length to the other classes'
+		               queue lengths, and the class with the most waiters claims the room next
+*/
+
+
+public abstract class SwitchPolicy {
+
+
+	/*
+	Whether the owning class may admit another thread while other classes are waiting. 'admitted' threads have entered
+	in the current turn which began 'elapsed' nanoseconds ago. Called with the GroupMutex guard held.
+	*/
+	public abstract boolean keepTurn(int admitted, long elapsed, int ownWaiting, int otherWaiting);
+
+
+	/*
+	Picks the class to claim the empty room from those with waiters. waiting[i] is the queue length of class i and
+	oldest[i] the arrival ticket of its first waiter. Class 'exclude' is passed over unless nobody else is waiting.
+	By default the class whose first waiter has been waiting longest is chosen. Returns -1 if nobody is waiting.
+	*/
+	public int choose(int[] waiting, long[] oldest, int exclude) {
+		int best = -1;
+
+		for (int i=0; i<waiting.length; i++) {
+			if (waiting[i] == 0 || i == exclude)
+				continue;
+			if (best == -1 || oldest[i] < oldest[best])
+				best = i;
+		}
+		return best != -1 || exclude < 0 || waiting[exclude] == 0 ? best : exclude;
+	}
+
+
+	static final class Greedy extends SwitchPolicy {
+
+		public boolean keepTurn(int admitted, long elapsed, int ownWaiting, int otherWaiting) {
+			return true;
+		}
+
+
+		public String toString() {
+			return "greedy";
+		}
+	}
+
+
+	static final class MaxBatch extends SwitchPolicy {
+
+		private final int batch;
+
+
+		MaxBatch(int n) {
+			this.batch = n;
+		}
+
+
+		public boolean keepTurn(int admitted, long elapsed, int ownWaiting, int otherWaiting) {
+			return admitted < batch;
+		}
+
+
+		public String toString() {
+			return "batch:" + batch;
+		}
+	}
+
+
+	static final class TimeSlice extends SwitchPolicy {
+
+		private final long slice;
+
+
+		TimeSlice(long millis) {
+			this.slice = millis * 1000000L;
+		}
+
+
+		public boolean keepTurn(int admitted, long elapsed, int ownWaiting, int otherWaiting) {
+			return elapsed < slice;
+		}
+
+
+		public String toString() {
+			return "slice:" + slice / 1000000L;
+		}
+	}
+
+
+	static final class QueueWeighted extends SwitchPolicy {
+
+		private final int base;
+
+
+		QueueWeighted(int n) {
+			this.base = n;
+		}
+
+
+		public boolean keepTurn(int admitted, long elapsed, int ownWaiting, int otherWaiting) {
+			long quota = Math.max(1, (long) base * (ownWaiting + 1) / (otherWaiting + 1));
+			return admitted < quota;
+		}
+
+
+		public int choose(int[] waiting, long[] oldest, int exclude) {
+			int best = -1;
+
+			for (int i=0; i<waiting.length; i++) {
+				if (waiting[i] == 0 || i == exclude)
+					continue;
+				if (best == -1 || waiting[i] > waiting[best] || (waiting[i] == waiting[best] && oldest[i] < oldest[best]))
+					best = i;
+			}
+			return best != -1 || exclude < 0 || waiting[exclude] == 0 ? best : exclude;
+		}
+
+
+		public String toString() {
+			return "weighted:" + base;
+		}
+	}
+
+
+	/*
+	Builds a policy from its name as listed above, throwing IllegalArgumentException for anything else.
+	*/
+	public static SwitchPolicy parse(String spec) {
+		int colon = spec.indexOf(':');
+		String name = colon < 0 ? spec : spec.substring(0, colon);
+
+		if (name.equals("greedy") && colon < 0)
+			return new Greedy();
+
+		if (colon < 0)
+			throw new IllegalArgumentException("Policy " + name + " needs a value, for example " + name + ":3");
+
+		int n;
+		try {
+			n = Integer.parseInt(spec.substring(colon + 1));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid policy value in " + spec);
+		}
+
+		if (n < 1)
+			throw new IllegalArgumentException("Policy value must be greater than 0 in " + spec);
+
+		if (name.equals("batch"))
+			return new MaxBatch(n);
+		else if (name.equals("slice"))
+			return new TimeSlice(n);
+		else if (name.equals("weighted"))
+			return new QueueWeighted(n);
+
+		throw new IllegalArgumentException("Unknown policy " + spec + ", must be greedy, batch:N, slice:MS or weighted:N");
+	}
+}
@@ -20,74 +20,141 @@
 	
 	This specifies 3 threads. The 1st has ID=1, gender=Male, arrival=3, duration=4
 	
+	Admission is handled by a GroupMutex which is not limited to two classes: any single char may be used as the thread
+	type and every distinct char becomes its own class. The limit of three may be changed with an optional argument,
+	for example: java Unisex <input_file> -capacity 5
+	
+	Left alone whichever class holds the bathroom keeps it for as long as its threads keep arriving. A SwitchPolicy bounding
+	how long it may do so while others wait may be given with -policy, one of greedy (default), batch:N, slice:MS or
+	weighted:N. The number of ownership flips and each class's wait distribution are reported at the end.
+	
+	With -virtual the run is timed by a virtual Clock which skips ahead whenever every thread is blocked, so it finishes
+	as fast as the threads' events can be processed and reports the idle times a real run would. With -vthreads every
+	thread is a virtual thread rather than a platform thread, on Java 21 or later.
+	
+	The input file is memory mapped and read by a ScenarioFile, and each thread is started as its line is read. If the file
+	is in order of arrival each thread is only started shortly before it arrives, so large scenarios never have every
+	thread alive at once.
+	
+	Threads never print as they go: entering and leaving are logged to the EventLog and printed by its own thread, so
+	no thread waits on the console. With -quiet they are not printed at all, only the idle times and wait statistics.
+	
 	Author: Justin Underhay
 */
 
 
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.Condition;
-import java.util.Scanner;
-import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 
 
 public class Unisex {
 	
-	private char ownedBy;
-	private int size;
-	private final ReentrantLock dLock = new ReentrantLock(true);
-	private final Condition dCond = dLock.newCondition();
+	private final int capacity;
+	private final SwitchPolicy policy;
+	private GroupMutex bathroom;
+	private String classes;
+	private Arrivals arrivals;
+	
+	//The ID and idle time of every thread, in the order they were read
+	private int[] ids;
+	private double[] idles;
+	
+	//The events each thread logs, with its ID and gender
+	private static final EventLog.Format ENTERING = (out, id, gender, ref) -> {
+		if (gender == 'M')
+			out.append("Male thread ");
+		else if (gender == 'F')
+			out.append("Female thread ");
+		else
+			out.append("Class ").append((char) gender).append(" thread ");
+		out.append(id).append(" entering bathroom");
+	};
+	private static final EventLog.Format LEFT = (out, id, gender, ref) -> out.append("Thread ").append(id).append(" has left the bathroom");
 	
 	
 	/*
 	To initialize the problem's global variables
 	*/
-	public Unisex() {
+	public Unisex(int c, SwitchPolicy p) {
 		
-		ownedBy = 'F';
-		size = 0;
+		capacity = c;
+		policy = p;
+		classes = "";
 		
 	}
 
 	
-	//Main method calls here where all threads are initialized and have their attributes set
-	public void init(int[] IDs, char[] genders, int[] arrivals, int[] durations) {
-		EmpThread[] threads = new EmpThread[IDs.length];
+	//Main method calls here where each thread is created and started as its attributes are read from the input file
+	public void init(ScenarioFile in) throws IOException {
 		
-		//Create threads 
-		for (int j=0; j<threads.length; j++)
-			threads[j] = new EmpThread(IDs[j],genders[j],arrivals[j],durations[j]);
+		/*
+		Every distinct gender char is given a class number in order of first appearance, in the same pass that finds
+		whether the file is in order of arrival
+		*/
+		int numThreads = in.nextInt();
+		boolean paced = true;
+		int last = Integer.MIN_VALUE;
+		for (int j=0; j<numThreads; j++) {
+			in.skip();
+			char gender = in.nextChar();
+			int arrival = in.nextInt();
+			in.skip();
+			if (classes.indexOf(gender) < 0)
+				classes += gender;
+			paced = paced && arrival >= last;
+			last = arrival;
+		}
+		in.rewind();
+		in.nextInt();
 		
-		//Begin running all threads
-		for (int k=0; k<threads.length; k++)
-			threads[k].start();
+		bathroom = new GroupMutex(Math.max(1, classes.length()), capacity, policy);
 		
-		try {
-			for (int k=0; k<threads.length; k++)
-				threads[k].join();
-		} catch (InterruptedException e) {}
+		/*
+		Create and start each thread, only once it is nearly due if the file is in order of arrival. Each leaves its idle
+		time at its place in the file, so no thread is held on to once it has finished.
+		*/
+		ids = new int[numThreads];
+		idles = new double[numThreads];
+		Actors.Group threads = new Actors.Group();
+		arrivals = new Arrivals(paced);
+		for (int j=0; j<numThreads; j++) {
+			EmpThread t = new EmpThread(j, in.nextInt(), in.nextChar(), in.nextInt(), in.nextInt());
+			ids[j] = t.ID;
+			arrivals.admit(t, 1000L*t.arrival, threads);
+		}
+		
+		threads.join();
+		arrivals.finish();
+		EventLog.flush();
 
 		double sum = 0;
-		for (int k=0; k<threads.length; k++) {
-			System.out.println("Thread " + threads[k].ID + " idle time: " + threads[k].idle/1000);	
-			sum += threads[k].idle/1000;
+		for (int k=0; k<numThreads; k++) {
+			System.out.println("Thread " + ids[k] + " idle time: " + idles[k]/1000);	
+			sum += idles[k]/1000;
 		}
 
-		System.out.println("Average idle time: " + sum/threads.length);	
+		System.out.println("Average idle time: " + sum/numThreads);	
+		
+		System.out.println("\nPolicy " + policy + ", ownership flips: " + bathroom.getFlips());
+		for (int j=0; j<classes.length(); j++)
+			System.out.println("Class " + classes.charAt(j) + " entered: " + bathroom.getEntries(j) + ", queued: " + bathroom.getQueued(j)
+				+ ", wait p50: " + bathroom.getWaitPercentile(j, 0.5)/1000 + ", p99: " + bathroom.getWaitPercentile(j, 0.99)/1000
+				+ ", max: " + bathroom.getMaxWait(j)/1000);
 	}	
 
 	
 	//Each thread uses this class
 	class EmpThread	extends Thread {
 		
+		private int place;
 		private int ID;
 		private char gender;
 		private int arrival;
 		private int duration;
-		private double idle;
 		
 		
-		public EmpThread(int i, char g, int a, int d) {
+		public EmpThread(int p, int i, char g, int a, int d) {
+			this.place = p;
 			this.ID = i;
 			this.gender = g;
 			this.arrival = a;
@@ -96,52 +163,28 @@ public class Unisex {
 		
 
 		/*
-		Thread entry point. The 'ownedBy' variable determines which gender has control of the bathroom.
+		Thread entry point. The GroupMutex decides which class has control of the bathroom.
 		*/
 		public void run() {
 			
 			try {
-				Thread.sleep(arrival*1000);
+				arrivals.awaitArrival(1000L*arrival);
 			} catch (InterruptedException e) {}	
 			
-			long start = System.currentTimeMillis();
-			if (gender == 'M') {
-				
-				dLock.lock();
-				while ((size >= 3 || ownedBy == 'F') && size != 0)
-					try {
-						dCond.await();
-					} catch (InterruptedException e) {}	
-				
-				idle = (double) (System.currentTimeMillis() - start);
-				ownedBy = 'M'; 
-				size++;
-				System.out.println("Male thread " + ID + " entering bathroom");
-			} else {
-
-				dLock.lock();
-				while ((size >= 3 || ownedBy == 'M') && size != 0)
-					try {
-						dCond.await();
-					} catch (InterruptedException e) {}
-				
-				idle = (double) (System.currentTimeMillis() - start);
-				ownedBy = 'F'; 
-				size++;
-				System.out.println("Female thread " + ID + " entering bathroom");
-			}	
-				
-				dLock.unlock();
-				
-				try {
-					Thread.sleep(duration*1000);
-				} catch (InterruptedException e) {}	
+			long start = Clock.currentTimeMillis();
+			int cls = classes.indexOf(gender);
+			
+			bathroom.enter(cls);
+			idles[place] = (double) (Clock.currentTimeMillis() - start);
+			
+			EventLog.log(ENTERING, ID, gender);
 				
-				dLock.lock();
-				size--;
-				System.out.println("Thread " + ID + " has left the bathroom");
-				dCond.signalAll();
-				dLock.unlock();
+			try {
+				Clock.sleep(duration*1000);
+			} catch (InterruptedException e) {}	
+			
+			bathroom.exit(cls);
+			EventLog.log(LEFT, ID, gender);
 			
 		}
 		
@@ -151,39 +194,68 @@ public class Unisex {
 
 
 	/*
-	Main method reads input file and sends data to create threads.
+	Main method opens the input file and sends it to create threads.
 	*/
 	public static void main(String[] args) {
 		
-		if (args.length != 1) {
-			System.out.println("Must provide input file on command line: java Unisex <input_file>");
+		int capacity = 3;
+		SwitchPolicy policy = new SwitchPolicy.Greedy();
+		boolean virtual = false;
+		boolean vthreads = false;
+		boolean quiet = false;
+		boolean valid = args.length >= 1;
+		
+		try {
+			for (int i=1; i<args.length && valid; i++) {
+				if (args[i].equals("-capacity") && i + 1 < args.length)
+					capacity = Integer.parseInt(args[++i]);
+				else if (args[i].equals("-policy") && i + 1 < args.length)
+					policy = SwitchPolicy.parse(args[++i]);
+				else if (args[i].equals("-virtual"))
+					virtual = true;
+				else if (args[i].equals("-vthreads"))
+					vthreads = true;
+				else if (args[i].equals("-quiet"))
+					quiet = true;
+				else
+					valid = false;
+			}
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage());
 			System.exit(-1);
-		}		
+		}
 		
-		Scanner fileReader;
+		if (!valid) {
+			System.out.println("Must provide input file on command line: java Unisex <input_file> [-capacity n] [-policy greedy|batch:N|slice:MS|weighted:N] [-virtual] [-vthreads] [-quiet]");
+			System.exit(-1);
+		}
 		
-		try {
-			fileReader = new Scanner(new File(args[0]));
-			
-			int numThreads = fileReader.nextInt();
-			int[] IDs = new int[numThreads]; 
-			char[] genders = new char[numThreads];
-			int[] arrivals = new int[numThreads];
-			int[] durations = new int[numThreads];
-			
-			for (int i=0; i<numThreads; i++) {
-				IDs[i] = fileReader.nextInt();
-				genders[i] = (fileReader.next()).charAt(0);
-				arrivals[i] = fileReader.nextInt();
-				durations[i] = fileReader.nextInt();				
-			}	
-			
-			Unisex ex = new Unisex();
-			ex.init(IDs,genders,arrivals,durations);
+		if (capacity < 1) {
+			System.out.println("Invalid capacity specified, must be greater than 0");
+			System.exit(-1);
+		}
+		
+		EventLog.setText(!quiet);
+		if (virtual)
+			Clock.useVirtual();
+		if (vthreads) {
+			try {
+				Actors.useVirtualThreads();
+			} catch (UnsupportedOperationException e) {
+				System.out.println(e.getMessage() + ", running on platform threads");
+			}
+		}
+		
+		try (ScenarioFile in = new ScenarioFile(args[0])) {
+			Unisex ex = new Unisex(capacity, policy);
+			ex.init(in);
 			
 		} catch (FileNotFoundException e) {
 			System.out.println("Error, could not find input file.");
 			System.exit(-1);
+		} catch (IOException e) {
+			System.out.println("Error, could not read input file: " + e.getMessage());
+			System.exit(-1);
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,147 @@
+/*
+	UnisexBench.java - Measures how entering and leaving the bathroom scales with the number of threads.
+
+	Each thread repeatedly enters and immediately leaves for a fixed time, alternating between the classes so ownership of the
+	room keeps changing hands. Two implementations are compared:
+
+		fair  - the original Unisex admission, a fair ReentrantLock with one condition signalled with signalAll() on every exit
+		group - the GroupMutex used by Unisex now, a single compare-and-set per entry and exit while nobody is waiting
+
+	Invoke as: java UnisexBench [classes] [capacity] [millis_per_run]
+
+	With one class no thread ever has to wait, which shows the uncontended cost of each implementation.
+*/
+
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+public class UnisexBench {
+
+	private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+
+	interface Bathroom {
+		void enter(int cls);
+		void exit(int cls);
+	}
+
+
+	//The admission logic Unisex used before the GroupMutex, generalized from 'M' and 'F' to class numbers
+	static final class FairLockBathroom implements Bathroom {
+
+		private final int capacity;
+		private int ownedBy;
+		private int size;
+		private final ReentrantLock dLock = new ReentrantLock(true);
+		private final Condition dCond = dLock.newCondition();
+
+
+		FairLockBathroom(int c) {
+			this.capacity = c;
+		}
+
+
+		public void enter(int cls) {
+			dLock.lock();
+			while ((size >= capacity || ownedBy != cls) && size != 0)
+				dCond.awaitUninterruptibly();
+
+			ownedBy = cls;
+			size++;
+			dLock.unlock();
+		}
+
+
+		public void exit(int cls) {
+			dLock.lock();
+			size--;
+			dCond.signalAll();
+			dLock.unlock();
+		}
+	}
+
+
+	static final class GroupBathroom implements Bathroom {
+
+		private final GroupMutex mutex;
+
+
+		GroupBathroom(int classes, int c) {
+			this.mutex = new GroupMutex(classes, c);
+		}
+
+
+		public void enter(int cls) {
+			mutex.enter(cls);
+		}
+
+
+		public void exit(int cls) {
+			mutex.exit(cls);
+		}
+	}
+
+
+	//Runs n threads against b for the given time and returns the total entries per second
+	static double run(Bathroom b, int n, int classes, long millis) throws InterruptedException {
+
+		AtomicBoolean stop = new AtomicBoolean(false);
+		long[] counts = new long[n];
+		Thread[] threads = new Thread[n];
+
+		for (int i=0; i<n; i++) {
+			final int id = i;
+			threads[i] = new Thread(() -> {
+				int cls = id % classes;
+				long ops = 0;
+				while (!stop.get()) {
+					b.enter(cls);
+					b.exit(cls);
+					ops++;
+				}
+				counts[id] = ops;
+			});
+		}
+
+		long start = System.nanoTime();
+		for (Thread t : threads)
+			t.start();
+
+		Thread.sleep(millis);
+		stop.set(true);
+
+		for (Thread t : threads)
+			t.join();
+
+		double secs = (System.nanoTime() - start) / 1e9;
+		long total = 0;
+		for (long c : counts)
+			total += c;
+
+		return total / secs;
+	}
+
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int classes = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+		int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		long millis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
+		System.out.println("classes=" + classes + " capacity=" + capacity + " (entries per second)");
+		System.out.printf("%8s %14s %14s%n", "threads", "fair", "group");
+
+		for (int n : THREADS) {
+			//A short warm up of each before measuring
+			run(new FairLockBathroom(capacity), n, classes, millis / 5);
+			double fair = run(new FairLockBathroom(capacity), n, classes, millis);
+			run(new GroupBathroom(classes, capacity), n, classes, millis / 5);
+			double group = run(new GroupBathroom(classes, capacity), n, classes, millis);
+
+			System.out.printf("%8d %14.0f %14.0f%n", n, fair, group);
+		}
+	}
+}